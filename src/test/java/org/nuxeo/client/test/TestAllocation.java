@@ -0,0 +1,121 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+
+import okhttp3.Response;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.nuxeo.client.api.ConstantsV1;
+import org.nuxeo.client.api.objects.blob.Blob;
+import org.nuxeo.client.test.alloc.AllocationBaseline;
+import org.nuxeo.client.test.alloc.AllocationMeter;
+import org.nuxeo.client.test.harness.AllocationRegression;
+import org.nuxeo.client.test.harness.SnapshotRepositoryInit;
+import org.nuxeo.client.test.harness.WorkerServerFeature;
+import org.nuxeo.client.test.marshallers.DocumentMarshaller;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.restapi.test.RestServerFeature;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.Jetty;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Fails when a client hot path allocates more than its baseline, or has no recorded baseline, see
+ * {@link AllocationBaseline}. Excluded from the default build, run with {@code mvn test -Pallocation}.
+ *
+ * @since 2.2
+ */
+@Category(AllocationRegression.class)
+@RunWith(FeaturesRunner.class)
+@Features({ RestServerFeature.class, WorkerServerFeature.class })
+@Jetty(port = 18090)
+@RepositoryConfig(cleanup = Granularity.METHOD, init = SnapshotRepositoryInit.class)
+public class TestAllocation extends TestBase {
+
+    protected static final String FOLDER_2_FILE = "/folder_2/file";
+
+    protected final AllocationBaseline baseline = new AllocationBaseline();
+
+    protected AllocationMeter meter;
+
+    @Before
+    public void authentication() {
+        assumeTrue("Thread allocation counters are not available", AllocationMeter.isSupported());
+        meter = new AllocationMeter().warmups(100).iterations(50);
+        login();
+    }
+
+    @Test
+    public void itCanFetchDocumentByPathWithinBaseline() throws Exception {
+        assertAllocation("fetchDocumentByPath", () -> nuxeoClient.repository().fetchDocumentByPath(FOLDER_2_FILE));
+    }
+
+    @Test
+    public void itCanQueryWithinBaseline() throws Exception {
+        assertAllocation("query", () -> nuxeoClient.repository().query("SELECT * FROM Document"));
+    }
+
+    @Test
+    public void itCanReadDocumentsWithinBaseline() throws Exception {
+        byte[] payload;
+        Response response = nuxeoClient.get(baseURL + ConstantsV1.API_PATH + "path" + FOLDER_2_FILE);
+        try {
+            payload = response.body().bytes();
+        } finally {
+            response.close();
+        }
+        JsonFactory factory = new JsonFactory();
+        DocumentMarshaller marshaller = new DocumentMarshaller();
+        // the marshaller reads from a parser positioned before the document, as the client hands it over
+        assertAllocation("DocumentMarshaller.read", () -> {
+            try (JsonParser jp = factory.createParser(payload)) {
+                marshaller.read(jp);
+            }
+        });
+    }
+
+    @Test
+    public void itCanDownloadBlobsWithinBaseline() throws Exception {
+        assertAllocation("Blob.download", () -> {
+            Blob blob = nuxeoClient.automation().input(FOLDER_2_FILE).execute("Document.GetBlob");
+            if (!blob.getFile().delete()) {
+                throw new IOException("Cannot delete " + blob.getFile());
+            }
+        });
+    }
+
+    protected void assertAllocation(String name, AllocationMeter.Operation operation) throws Exception {
+        if (!baseline.isUpdate()) {
+            assertTrue(String.format("No allocation baseline for %s, record it with -D%s=true", name,
+                    AllocationBaseline.UPDATE_PROPERTY), baseline.getBaseline(name) >= 0);
+        }
+        long measured = meter.measure(operation);
+        assertTrue(String.format("%s allocates %d bytes per call, over its limit of %d bytes", name, measured,
+                baseline.getLimit(name)), baseline.check(name, measured));
+    }
+}
@@ -21,6 +21,7 @@ package org.nuxeo.client.test;
 import javax.inject.Inject;
 
 import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.test.harness.TestServer;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.runtime.transaction.TransactionHelper;
 
@@ -37,14 +38,14 @@ public class TestBase {
     public String baseURL;
 
     public void login() {
-        String url = "http://localhost:18090";
+        String url = TestServer.getURL();
         // String url = "http://localhost:8080/nuxeo";
         this.baseURL = url;
         nuxeoClient = new NuxeoClient(url, "Administrator", "Administrator").timeout(60).schemas("*");
     }
 
     public void login(String username, String pwd) {
-        nuxeoClient = new NuxeoClient("http://localhost:18090", username, pwd);
+        nuxeoClient = new NuxeoClient(TestServer.getURL(), username, pwd);
     }
 
     public void logout() {
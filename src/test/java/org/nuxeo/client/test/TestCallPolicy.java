@@ -0,0 +1,170 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.client.api.objects.Document;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+import org.nuxeo.client.test.harness.SnapshotRepositoryInit;
+import org.nuxeo.client.test.harness.WorkerServerFeature;
+import org.nuxeo.client.test.policy.CallPolicy;
+import org.nuxeo.client.test.policy.CircuitBreaker;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.restapi.test.RestServerFeature;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.Jetty;
+
+/**
+ * @since 2.2
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ RestServerFeature.class, WorkerServerFeature.class })
+@Jetty(port = 18090)
+@RepositoryConfig(cleanup = Granularity.METHOD, init = SnapshotRepositoryInit.class)
+public class TestCallPolicy extends TestBase {
+
+    protected CallPolicy policy;
+
+    @Before
+    public void authentication() {
+        login();
+        policy = new CallPolicy().backoff(1, 10, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void closePolicy() {
+        policy.close();
+    }
+
+    @Test
+    public void itCanRetryReads() {
+        AtomicInteger attempts = new AtomicInteger();
+        Document folder = policy.read("path", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new NuxeoClientException("connection reset");
+            }
+            return nuxeoClient.repository().fetchDocumentByPath("/folder_2");
+        });
+        assertEquals("Folder 2", folder.getTitle());
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void itCanNotRetryWritesNorClientErrors() {
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            policy.write("update", () -> {
+                attempts.incrementAndGet();
+                throw new NuxeoClientException("connection reset");
+            });
+            fail("Write should not be retried");
+        } catch (NuxeoClientException reason) {
+            assertEquals(1, attempts.get());
+        }
+        try {
+            policy.read("path", () -> {
+                attempts.incrementAndGet();
+                return nuxeoClient.repository().fetchDocumentByPath("/folder_1/wrong");
+            });
+            fail("Should be not found");
+        } catch (NuxeoClientException reason) {
+            assertEquals(404, reason.getStatus());
+            assertEquals(2, attempts.get());
+        }
+    }
+
+    @Test
+    public void itCanOpenCircuit() throws InterruptedException {
+        policy.maxAttempts(1).circuitBreaker(2, 100, TimeUnit.MILLISECONDS);
+        AtomicInteger attempts = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            try {
+                policy.read("audit", () -> {
+                    attempts.incrementAndGet();
+                    throw new NuxeoClientException("server down");
+                });
+                fail("Should fail");
+            } catch (NuxeoClientException reason) {
+                // expected
+            }
+        }
+        // Calls are rejected without reaching the server once open
+        assertEquals(2, attempts.get());
+        assertEquals(CircuitBreaker.State.OPEN, policy.getCircuitBreaker("audit").getState());
+        // Other endpoints are not affected
+        assertEquals("Root", policy.read("root", () -> nuxeoClient.repository().fetchDocumentRoot()).getType());
+        Thread.sleep(150);
+        assertEquals("Root", policy.read("audit", () -> nuxeoClient.repository().fetchDocumentRoot()).getType());
+        assertEquals(CircuitBreaker.State.CLOSED, policy.getCircuitBreaker("audit").getState());
+    }
+
+    @Test
+    public void itCanHedgeSlowReads() {
+        policy.hedging(true);
+        for (int i = 0; i < CallPolicy.HEDGE_MIN_SAMPLES; i++) {
+            policy.read("path", () -> nuxeoClient.repository().fetchDocumentByPath("/folder_2"));
+        }
+        AtomicInteger attempts = new AtomicInteger();
+        long start = System.nanoTime();
+        Document folder = policy.read("path", () -> {
+            if (attempts.incrementAndGet() == 1) {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException reason) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return nuxeoClient.repository().fetchDocumentByPath("/folder_2");
+        });
+        assertEquals("Folder 2", folder.getTitle());
+        assertEquals(1, policy.getHedges());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void itCanNotHedgeBeyondTheBudget() {
+        policy.hedging(true).hedgeBudget(0);
+        for (int i = 0; i < CallPolicy.HEDGE_MIN_SAMPLES; i++) {
+            policy.read("path", () -> nuxeoClient.repository().fetchDocumentByPath("/folder_2"));
+        }
+        AtomicInteger attempts = new AtomicInteger();
+        Document folder = policy.read("path", () -> {
+            attempts.incrementAndGet();
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException reason) {
+                Thread.currentThread().interrupt();
+            }
+            return nuxeoClient.repository().fetchDocumentByPath("/folder_2");
+        });
+        assertEquals("Folder 2", folder.getTitle());
+        assertEquals(1, attempts.get());
+        assertEquals(0, policy.getHedges());
+    }
+
+}
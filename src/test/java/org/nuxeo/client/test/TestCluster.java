@@ -0,0 +1,154 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.Document;
+import org.nuxeo.client.api.objects.upload.BatchUpload;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+import org.nuxeo.client.test.cluster.NuxeoCluster;
+import org.nuxeo.client.test.harness.SnapshotRepositoryInit;
+import org.nuxeo.client.test.harness.TestServer;
+import org.nuxeo.client.test.harness.WorkerServerFeature;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.restapi.test.RestServerFeature;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.Jetty;
+import org.nuxeo.transientstore.test.TransientStoreFeature;
+
+/**
+ * The embedded server only runs one node, the other node of the cluster is never listening.
+ *
+ * @since 2.2
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ TransientStoreFeature.class, RestServerFeature.class, WorkerServerFeature.class })
+@Jetty(port = 18090)
+@RepositoryConfig(cleanup = Granularity.METHOD, init = SnapshotRepositoryInit.class)
+public class TestCluster extends TestBase {
+
+    protected static final String LIVE_NODE = TestServer.getURL();
+
+    protected static final String DEAD_NODE = "http://localhost:" + TestServer.findFreePort();
+
+    protected NuxeoCluster createCluster(NuxeoCluster.Strategy strategy) {
+        return new NuxeoCluster(Arrays.asList(DEAD_NODE, LIVE_NODE),
+                url -> new NuxeoClient(url, "Administrator", "Administrator").timeout(60).schemas("*")).strategy(
+                        strategy);
+    }
+
+    @Test
+    public void itCanFailoverToLiveNode() {
+        for (NuxeoCluster.Strategy strategy : NuxeoCluster.Strategy.values()) {
+            try (NuxeoCluster cluster = createCluster(strategy)) {
+                for (int i = 0; i < 10; i++) {
+                    Document folder = cluster.execute(client -> client.repository().fetchDocumentByPath("/folder_2"));
+                    assertEquals("Folder 2", folder.getTitle());
+                }
+                NuxeoCluster.Node dead = cluster.getNodes().get(0);
+                NuxeoCluster.Node live = cluster.getNodes().get(1);
+                assertTrue(dead.isEjected());
+                assertFalse(live.isEjected());
+                assertEquals(0, dead.getCalls());
+                assertEquals(10, live.getCalls());
+                assertEquals(0, live.getOutstanding());
+            }
+        }
+    }
+
+    @Test
+    public void itCanCheckNodesHealth() throws InterruptedException {
+        try (NuxeoCluster cluster = createCluster(NuxeoCluster.Strategy.LEAST_OUTSTANDING_REQUESTS)) {
+            cluster.checkHealth();
+            assertTrue(cluster.getNodes().get(0).isEjected());
+            assertFalse(cluster.getNodes().get(1).isEjected());
+            cluster.ejectionTime(10, TimeUnit.MILLISECONDS).startHealthChecks(20, TimeUnit.MILLISECONDS);
+            Thread.sleep(100);
+            assertFalse(cluster.getNodes().get(1).isEjected());
+        }
+    }
+
+    @Test
+    public void itCanNotEjectOnClientErrors() {
+        try (NuxeoCluster cluster = createCluster(NuxeoCluster.Strategy.POWER_OF_TWO_CHOICES).maxFailures(1)) {
+            for (int i = 0; i < 3; i++) {
+                try {
+                    cluster.execute(client -> client.repository().fetchDocumentByPath("/folder_1/wrong"));
+                    fail("Should be not found");
+                } catch (NuxeoClientException reason) {
+                    assertEquals(404, reason.getStatus());
+                }
+            }
+            assertFalse(cluster.getNodes().get(1).isEjected());
+        }
+    }
+
+    @Test
+    public void itCanNotReplayCallsWithoutResponse() {
+        try (NuxeoCluster cluster = new NuxeoCluster(Arrays.asList(LIVE_NODE, LIVE_NODE),
+                url -> new NuxeoClient(url, "Administrator", "Administrator"))) {
+            AtomicInteger attempts = new AtomicInteger();
+            Function<NuxeoClient, Document> timingOut = client -> {
+                if (attempts.incrementAndGet() == 1) {
+                    throw new NuxeoClientException(new SocketTimeoutException("Read timed out"));
+                }
+                return client.repository().fetchDocumentByPath("/folder_2");
+            };
+            try {
+                cluster.execute(timingOut);
+                fail("Should not be sent to another node");
+            } catch (NuxeoClientException reason) {
+                assertTrue(reason.getCause() instanceof SocketTimeoutException);
+            }
+            assertEquals(1, attempts.get());
+
+            attempts.set(0);
+            assertEquals("Folder 2", cluster.executeIdempotent(timingOut).getTitle());
+            assertEquals(2, attempts.get());
+        }
+    }
+
+    @Test
+    public void itCanStickBatchUploadToItsNode() {
+        try (NuxeoCluster cluster = createCluster(NuxeoCluster.Strategy.POWER_OF_TWO_CHOICES)) {
+            BatchUpload batchUpload = cluster.fetchUploadManager();
+            assertNotNull(batchUpload.getBatchId());
+            File file = FileUtils.getResourceFileFromContext("sample.jpg");
+            batchUpload = batchUpload.upload(file.getName(), file.length(), "jpg", batchUpload.getBatchId(), "1",
+                    file);
+            assertEquals(file.getName(), batchUpload.fetchBatchFile("1").getName());
+        }
+    }
+
+}
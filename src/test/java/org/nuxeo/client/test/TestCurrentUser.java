@@ -27,6 +27,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.nuxeo.client.api.objects.user.CurrentUser;
 import org.nuxeo.client.internals.spi.NuxeoClientException;
+import org.nuxeo.client.test.harness.WorkerServerFeature;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
 import org.nuxeo.ecm.restapi.test.RestServerFeature;
@@ -38,7 +39,7 @@ import org.nuxeo.runtime.test.runner.Jetty;
  * @since 0.1
  */
 @RunWith(FeaturesRunner.class)
-@Features({ RestServerFeature.class })
+@Features({ RestServerFeature.class, WorkerServerFeature.class })
 @Jetty(port = 18090)
 @RepositoryConfig(cleanup = Granularity.METHOD)
 public class TestCurrentUser extends TestBase {
@@ -20,6 +20,16 @@ package org.nuxeo.client.test;
 
 import static junit.framework.TestCase.assertNotNull;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Ignore;
@@ -28,6 +38,10 @@ import org.junit.runner.RunWith;
 import org.nuxeo.client.api.objects.directory.Directory;
 import org.nuxeo.client.api.objects.directory.DirectoryEntry;
 import org.nuxeo.client.api.objects.directory.DirectoryEntryProperties;
+import org.nuxeo.client.test.batch.BatchReport;
+import org.nuxeo.client.test.directory.DirectoryImporter;
+import org.nuxeo.client.test.directory.DirectorySnapshot;
+import org.nuxeo.client.test.harness.WorkerServerFeature;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
 import org.nuxeo.ecm.restapi.test.RestServerFeature;
@@ -41,7 +55,7 @@ import org.nuxeo.runtime.test.runner.LocalDeploy;
  * @since 0.1
  */
 @RunWith(FeaturesRunner.class)
-@Features({ RestServerFeature.class })
+@Features({ RestServerFeature.class, WorkerServerFeature.class })
 @Jetty(port = 18090)
 @LocalDeploy("org.nuxeo.java.client.test:test-directories-sql-contrib.xml")
 @RepositoryConfig(cleanup = Granularity.METHOD, init = RestServerInit.class)
@@ -74,4 +88,60 @@ public class TestDirectory extends TestBase {
         assertEquals("continent", result.getDirectoryName());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void itCanSnapshotDirectory() throws InterruptedException {
+        try (DirectorySnapshot snapshot = new DirectorySnapshot(nuxeoClient, "continent")) {
+            assertEquals(7, snapshot.size());
+            assertEquals("label.directories.continent.europe", snapshot.getLabel("europe"));
+            assertEquals("europe", snapshot.getEntry("europe").getProperties().getId());
+            assertNull(snapshot.getEntry("atlantis"));
+            assertEquals("asia", snapshot.getIds().get(2));
+            DirectorySnapshot.Index index = snapshot.getIndex();
+            assertSame(index, snapshot.getIndex());
+            assertEquals(Collections.singletonList("africa"),
+                    index.findIdsByLabel("label.directories.continent.africa"));
+            // Background refresh swaps the index
+            snapshot.start(10, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < 100 && snapshot.getIndex() == index; i++) {
+                Thread.sleep(50);
+            }
+            assertNotSame(index, snapshot.getIndex());
+            assertEquals(7, snapshot.size());
+        }
+    }
+
+    @Test
+    public void itCanReportInvalidRowsOnImport() throws IOException {
+        String csv = "id, label, obsolete\n" //
+                + "\"\",\"label.empty\",\"0\"\n" //
+                + "\"missing\",\"label.missing\"\n" //
+                + "\"nan\",\"label.nan\",\"NaN\"\n";
+        BatchReport<Integer> report = new DirectoryImporter(nuxeoClient, "continent").importCsv(new StringReader(csv));
+        assertEquals(3, report.size());
+        assertEquals(0, report.getCalls());
+        assertTrue(report.getFailures().keySet().containsAll(Arrays.asList(2, 3, 4)));
+        report = new DirectoryImporter(nuxeoClient, "continent").importJsonLines(
+                new StringReader("{\"label\": 1}\n{\nnull\n[\"europe\"]\n\"europe\""));
+        assertEquals(5, report.getFailures().size());
+        assertEquals(0, report.getCalls());
+        assertEquals(7, nuxeoClient.getDirectoryManager().fetchDirectory("continent").getDirectoryEntries().size());
+    }
+
+    @Ignore("JAVACLIENT-41")
+    @Test
+    public void itCanImportDirectoryEntries() throws IOException {
+        StringBuilder csv = new StringBuilder("id, label, obsolete\n");
+        for (int i = 0; i < 50; i++) {
+            csv.append("\"island_").append(i).append("\",\"label.island.").append(i).append("\",\"0\"\n");
+        }
+        DirectoryImporter importer = new DirectoryImporter(nuxeoClient, "continent").batchSize(10).parallelism(4);
+        BatchReport<Integer> report = importer.importCsv(new StringReader(csv.toString()));
+        assertTrue(report.isSuccessful());
+        assertEquals(50, report.size());
+        report = new DirectoryImporter(nuxeoClient, "continent").importJsonLines(
+                new StringReader("{\"id\": \"atlantis\", \"label\": \"label.atlantis\", \"ordering\": 1}"));
+        assertTrue(report.isSuccessful());
+        assertEquals(58, nuxeoClient.getDirectoryManager().fetchDirectory("continent").getDirectoryEntries().size());
+    }
+
+}
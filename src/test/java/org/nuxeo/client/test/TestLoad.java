@@ -0,0 +1,177 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.test.harness.SnapshotRepositoryInit;
+import org.nuxeo.client.test.harness.Soak;
+import org.nuxeo.client.test.harness.WorkerServerFeature;
+import org.nuxeo.client.test.load.ClientWorkload;
+import org.nuxeo.client.test.load.LoadGenerator;
+import org.nuxeo.client.test.load.LoadReport;
+import org.nuxeo.common.Environment;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.restapi.test.RestServerFeature;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.Jetty;
+import org.nuxeo.transientstore.test.TransientStoreFeature;
+
+/**
+ * Soak test replaying a mix of client calls at a constant rate, excluded from the default build. Runs for 10 seconds
+ * by default, set for a longer soak:
+ *
+ * <pre>
+ * mvn test -Psoak -Dnuxeo.test.load.duration=1800 -Dnuxeo.test.load.rate=50
+ * </pre>
+ *
+ * {@code nuxeo.test.load.seed} and {@code nuxeo.test.load.mix} (see {@link ClientWorkload#DEFAULT_MIX}) change the
+ * replayed requests, {@code nuxeo.test.load.p99} the 99th percentile latency allowed, in milliseconds, and
+ * {@code nuxeo.test.load.heap} the heap growth allowed after a full collection, in megabytes.
+ *
+ * @since 2.2
+ */
+@Category(Soak.class)
+@RunWith(FeaturesRunner.class)
+@Features({ TransientStoreFeature.class, RestServerFeature.class, WorkerServerFeature.class })
+@Jetty(port = 18090)
+@RepositoryConfig(cleanup = Granularity.METHOD, init = SnapshotRepositoryInit.class)
+public class TestLoad extends TestBase {
+
+    private static final Log log = LogFactory.getLog(TestLoad.class);
+
+    protected static final int THREAD_LEAK_MARGIN = 10;
+
+    protected static final int TEMP_FILE_LEAK_MARGIN = 5;
+
+    protected static final long DEFAULT_HEAP_MARGIN_MB = 64;
+
+    /**
+     * Share of the target rate the run must sustain, arrivals being random.
+     */
+    protected static final double MIN_THROUGHPUT_RATIO = 0.8;
+
+    @Before
+    public void authentication() {
+        login();
+    }
+
+    @Test
+    public void itCanSustainTheTargetRate() throws Exception {
+        long duration = Long.getLong("nuxeo.test.load.duration", 10);
+        double rate = Double.parseDouble(System.getProperty("nuxeo.test.load.rate", "20"));
+        long seed = Long.getLong("nuxeo.test.load.seed", 1);
+        String mix = System.getProperty("nuxeo.test.load.mix", ClientWorkload.DEFAULT_MIX);
+        long p99Millis = Long.getLong("nuxeo.test.load.p99", 1000);
+        long heapMargin = Long.getLong("nuxeo.test.load.heap", DEFAULT_HEAP_MARGIN_MB) * 1024 * 1024;
+
+        ClientWorkload workload = new ClientWorkload(nuxeoClient, "/folder_1", "/folder_2/file",
+                FileUtils.getResourceFileFromContext("blob.json"));
+        LoadGenerator generator = workload.register(new LoadGenerator(seed), mix)
+                                          .rate(rate)
+                                          .duration(duration, TimeUnit.SECONDS)
+                                          .interval(Math.max(1, duration / 10), TimeUnit.SECONDS)
+                                          .concurrency(16);
+
+        // warm up the server and the client before taking the baselines
+        workload.operation(ClientWorkload.FETCH_BY_PATH).execute(0);
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        int tempFiles = countTempFiles();
+        long heap = usedHeapAfterGC();
+        ConnectionPool pool = connectionPool(nuxeoClient);
+        int activeConnections = pool.connectionCount() - pool.idleConnectionCount();
+
+        LoadReport report = generator.run();
+        long heapAfter = usedHeapAfterGC();
+        log.info("Load of " + rate + " req/s for " + duration + " s with seed " + seed + ": " + report);
+        log.info(String.format("Heap after GC: %d KB before, %d KB after", heap / 1024, heapAfter / 1024));
+        log.info(String.format("Connections: %d active before, %d open and %d idle after", activeConnections,
+                pool.connectionCount(), pool.idleConnectionCount()));
+
+        assertEquals(0, report.getRejections());
+        assertEquals(0, report.getErrors());
+        assertTrue(String.format("Throughput of %.1f req/s for a target of %.1f", report.getThroughput(), rate),
+                report.getThroughput() >= rate * MIN_THROUGHPUT_RATIO);
+        long p99 = TimeUnit.NANOSECONDS.toMillis(report.getLatencies().getValueAtPercentile(99));
+        assertTrue(String.format("99th percentile latency of %d ms over %d ms", p99, p99Millis), p99 <= p99Millis);
+        assertTrue("Threads leaked", ManagementFactory.getThreadMXBean().getThreadCount() <= threads
+                + THREAD_LEAK_MARGIN);
+        assertTrue("Temporary files leaked", countTempFiles() <= tempFiles + TEMP_FILE_LEAK_MARGIN);
+        assertTrue(String.format("Heap grew by %d KB, over %d KB", (heapAfter - heap) / 1024, heapMargin / 1024),
+                heapAfter <= heap + heapMargin);
+        // every call is over: a connection still in use belongs to a response which was never closed
+        assertEquals("Connections leaked", activeConnections, pool.connectionCount() - pool.idleConnectionCount());
+    }
+
+    /**
+     * @return the pool of the HTTP client behind the Nuxeo client, which does not expose it.
+     */
+    protected static ConnectionPool connectionPool(NuxeoClient nuxeoClient) throws IllegalAccessException {
+        for (Class<?> type = nuxeoClient.getClass(); type != null; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                field.setAccessible(true);
+                if (field.getType() == OkHttpClient.class) {
+                    return ((OkHttpClient) field.get(nuxeoClient)).connectionPool();
+                } else if (field.getType() == OkHttpClient.Builder.class) {
+                    // clients built from the same builder share its pool
+                    return ((OkHttpClient.Builder) field.get(nuxeoClient)).build().connectionPool();
+                }
+            }
+        }
+        throw new AssertionError("No HTTP client found in " + nuxeoClient.getClass());
+    }
+
+    /**
+     * @return the number of files in the temporary directory of the embedded server runtime, which only this test JVM
+     *         writes to. The replayed client calls do not create temporary files themselves.
+     */
+    protected static int countTempFiles() throws IOException {
+        try (Stream<Path> files = Files.walk(Environment.getDefault().getTemp().toPath())) {
+            return (int) files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    protected static long usedHeapAfterGC() {
+        // several collections, so that objects with finalizers are reclaimed too
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
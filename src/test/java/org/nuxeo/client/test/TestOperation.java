@@ -26,7 +26,14 @@ import static org.junit.Assert.fail;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -39,11 +46,13 @@ import org.nuxeo.client.api.objects.blob.Blobs;
 import org.nuxeo.client.api.objects.operation.DocRef;
 import org.nuxeo.client.api.objects.operation.DocRefs;
 import org.nuxeo.client.internals.spi.NuxeoClientException;
+import org.nuxeo.client.test.harness.SnapshotRepositoryInit;
+import org.nuxeo.client.test.harness.WorkerServerFeature;
+import org.nuxeo.client.test.policy.OperationLimiter;
 import org.nuxeo.common.utils.FileUtils;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
 import org.nuxeo.ecm.restapi.test.RestServerFeature;
-import org.nuxeo.ecm.restapi.test.RestServerInit;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
 import org.nuxeo.runtime.test.runner.Jetty;
@@ -54,9 +63,9 @@ import com.google.common.io.Files;
  * @since 0.1
  */
 @RunWith(FeaturesRunner.class)
-@Features({ RestServerFeature.class })
+@Features({ RestServerFeature.class, WorkerServerFeature.class })
 @Jetty(port = 18090)
-@RepositoryConfig(cleanup = Granularity.METHOD, init = RestServerInit.class)
+@RepositoryConfig(cleanup = Granularity.METHOD, init = SnapshotRepositoryInit.class)
 public class TestOperation extends TestBase {
 
     public static final String FOLDER_2_FILE = "/folder_2/file";
@@ -175,4 +184,89 @@ public class TestOperation extends TestBase {
         result = nuxeoClient.automation().input(docRefs).param("properties", null).execute("Document.Update");
         assertNotNull(result);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void itCanIsolateBulkOperations() throws Exception {
+        String query = OperationLimiter.automation("Repository.Query");
+        OperationLimiter limiter = new OperationLimiter().bulkhead(query, 1);
+        AtomicInteger bulkRunning = new AtomicInteger();
+        AtomicInteger maxBulkRunning = new AtomicInteger();
+        AtomicInteger readsDuringBulk = new AtomicInteger();
+        CountDownLatch bulkStarted = new CountDownLatch(1);
+        CountDownLatch readsDone = new CountDownLatch(2);
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<Documents>> bulkCalls = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                bulkCalls.add(executor.submit(() -> limiter.execute(query, () -> {
+                    maxBulkRunning.accumulateAndGet(bulkRunning.incrementAndGet(), Math::max);
+                    try {
+                        if (bulkStarted.getCount() > 0) {
+                            bulkStarted.countDown();
+                            // Hold the only bulk slot until the reads went through
+                            assertTrue(readsDone.await(10, TimeUnit.SECONDS));
+                        }
+                        Operation operation = nuxeoClient.automation("Repository.Query")
+                                                         .param("query", "SELECT * FROM Document");
+                        return operation.<Documents> execute();
+                    } catch (InterruptedException reason) {
+                        throw new NuxeoClientException(reason);
+                    } finally {
+                        bulkRunning.decrementAndGet();
+                    }
+                })));
+            }
+            assertTrue(bulkStarted.await(10, TimeUnit.SECONDS));
+            // Reads are not limited by the query bulkhead
+            List<Future<Document>> reads = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                reads.add(executor.submit(() -> limiter.execute(OperationLimiter.READ, () -> {
+                    try {
+                        if (bulkRunning.get() > 0) {
+                            readsDuringBulk.incrementAndGet();
+                        }
+                        return nuxeoClient.automation()
+                                          .param("value", "/")
+                                          .<Document> execute("Repository.GetDocument");
+                    } finally {
+                        readsDone.countDown();
+                    }
+                })));
+            }
+            for (Future<Document> read : reads) {
+                assertNotNull(read.get(10, TimeUnit.SECONDS));
+            }
+            for (Future<Documents> bulkCall : bulkCalls) {
+                assertTrue(bulkCall.get(30, TimeUnit.SECONDS).getTotalSize() != 0);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, maxBulkRunning.get());
+        assertEquals(2, readsDuringBulk.get());
+    }
+
+    @Test
+    public void itCanRateLimitOperations() {
+        String log = OperationLimiter.automation("Log");
+        OperationLimiter limiter = new OperationLimiter().rateLimit(log, 10, 1);
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            limiter.run(log, () -> nuxeoClient.automation()
+                                              .newRequest("Log")
+                                              .param("message", "Rate limited")
+                                              .param("level", "info")
+                                              .execute());
+        }
+        // One token available at once, then 10 per second
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+        limiter.rateLimit(log, 0.1, 1).maxWait(10, TimeUnit.MILLISECONDS);
+        limiter.run(log, () -> nuxeoClient.automation().newRequest("Log").param("message", "first").execute());
+        try {
+            limiter.run(log, () -> nuxeoClient.automation().newRequest("Log").param("message", "second").execute());
+            fail("Should be rate limited");
+        } catch (NuxeoClientException reason) {
+            assertTrue(reason.getMessage().startsWith("Rate limit exceeded"));
+        }
+    }
+}
@@ -21,61 +21,104 @@ package org.nuxeo.client.test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
+import okhttp3.HttpUrl;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.junit.experimental.categories.Category;
 import org.junit.runner.RunWith;
+import org.nuxeo.client.api.ConstantsV1;
 import org.nuxeo.client.api.objects.Document;
 import org.nuxeo.client.api.objects.Documents;
 import org.nuxeo.client.api.objects.RecordSet;
 import org.nuxeo.client.api.objects.acl.ACE;
 import org.nuxeo.client.api.objects.acl.ACP;
 import org.nuxeo.client.api.objects.audit.Audit;
+import org.nuxeo.client.api.objects.audit.LogEntry;
 import org.nuxeo.client.api.objects.blob.Blob;
 import org.nuxeo.client.internals.spi.NuxeoClientException;
+import org.nuxeo.client.internals.spi.auth.BasicAuthInterceptor;
+import org.nuxeo.client.test.acl.PermissionBatch;
+import org.nuxeo.client.test.audit.AuditReader;
+import org.nuxeo.client.test.batch.BatchReport;
+import org.nuxeo.client.test.cache.CompactProperties;
+import org.nuxeo.client.test.cache.DiskCache;
+import org.nuxeo.client.test.cache.DocumentCodec;
+import org.nuxeo.client.test.cache.DocumentDiskCache;
+import org.nuxeo.client.test.cache.PropertyKeys;
+import org.nuxeo.client.test.enrich.Enrichers;
+import org.nuxeo.client.test.enrich.LazyEnrichedDocument;
+import org.nuxeo.client.test.harness.Benchmark;
+import org.nuxeo.client.test.harness.SnapshotRepositoryInit;
+import org.nuxeo.client.test.harness.WorkerServerFeature;
 import org.nuxeo.client.test.marshallers.DocumentMarshaller;
 import org.nuxeo.client.test.objects.DataSet;
 import org.nuxeo.client.test.objects.Field;
+import org.nuxeo.client.test.objects.PropertyReader;
+import org.nuxeo.client.test.projection.Projection;
+import org.nuxeo.client.test.query.FanOutQuery;
+import org.nuxeo.client.test.update.DirtyTracker;
 import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
 import org.nuxeo.ecm.platform.audit.AuditFeature;
 import org.nuxeo.ecm.restapi.test.RestServerFeature;
-import org.nuxeo.ecm.restapi.test.RestServerInit;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
 import org.nuxeo.runtime.test.runner.Jetty;
+import org.openjdk.jol.info.GraphLayout;
 
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Response;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * @since 0.1
  */
 @RunWith(FeaturesRunner.class)
-@Features({ RestServerFeature.class, AuditFeature.class })
+@Features({ RestServerFeature.class, AuditFeature.class, WorkerServerFeature.class })
 @Jetty(port = 18090)
 @Deploy({ "org.nuxeo.ecm.core.io", "org.nuxeo.ecm.permissions" })
-@RepositoryConfig(cleanup = Granularity.METHOD, init = RestServerInit.class)
+@RepositoryConfig(cleanup = Granularity.METHOD, init = SnapshotRepositoryInit.class)
 public class TestRepository extends TestBase {
 
+    private static final Log log = LogFactory.getLog(TestRepository.class);
+
     @Before
     public void authentication() {
         login();
@@ -335,6 +378,82 @@ public class TestRepository extends TestBase {
         assertEquals("local", acp.getAcls().get(0).getName());
     }
 
+    @Test
+    public void itCanManagePermissionsInBatch() {
+        ACE write = new ACE();
+        write.setUsername("user0");
+        write.setPermission("Write");
+        write.setCreator("Administrator");
+        ACE read = new ACE();
+        read.setUsername("user1");
+        read.setPermission("Read");
+        read.setCreator("Administrator");
+        Document folder1 = nuxeoClient.repository().fetchDocumentByPath("/folder_1");
+        PermissionBatch batch = new PermissionBatch(nuxeoClient).batchSize(2);
+        batch.add(folder1, write).add("/folder_2", write).add("/folder_2", read);
+        batch.addQuery("SELECT * FROM Note WHERE ecm:parentId = '" + folder1.getId() + "'", read);
+        BatchReport<PermissionBatch.Entry> report = batch.execute();
+        assertTrue(report.isSuccessful());
+        assertTrue(report.size() > 3);
+        // Two calls for the query, the last page being empty, one call for the write ACE, the read ACE split in chunks
+        // of 2 documents
+        assertEquals(3 + (report.size() - 2 + 1) / 2, report.getCalls());
+        // Final Check
+        ACP acp = nuxeoClient.repository().fetchDocumentByPath("/folder_2").fetchPermissions();
+        assertEquals("local", acp.getAcls().get(0).getName());
+        List<String> usernames = new ArrayList<>();
+        for (ACE ace : acp.getAcls().get(0).getAces()) {
+            usernames.add(ace.getUsername());
+        }
+        assertTrue(usernames.contains("user0"));
+        assertTrue(usernames.contains("user1"));
+    }
+
+    @Test
+    public void itCanApplyPermissionsOnEveryPageOfAQuery() {
+        ACE write = new ACE();
+        write.setUsername("user0");
+        write.setPermission("Write");
+        write.setCreator("Administrator");
+        ACE read = new ACE();
+        read.setUsername("user1");
+        read.setPermission("Read");
+        read.setCreator("Administrator");
+        String query = "SELECT * FROM Note";
+        int notes = nuxeoClient.repository().query(query).size();
+        assertTrue(notes > 2);
+        // The same query with two ACEs, resolved in pages of 2 notes
+        BatchReport<PermissionBatch.Entry> report = new PermissionBatch(nuxeoClient).queryPageSize(2)
+                                                                                    .addQuery(query, write)
+                                                                                    .addQuery(query, read)
+                                                                                    .execute();
+        assertTrue(report.isSuccessful());
+        assertEquals(2 * notes, report.size());
+        for (Document note : nuxeoClient.repository().query(query).getDocuments()) {
+            List<String> usernames = new ArrayList<>();
+            for (ACE ace : note.fetchPermissions().getAcls().get(0).getAces()) {
+                usernames.add(ace.getUsername());
+            }
+            assertTrue(usernames.contains("user0"));
+            assertTrue(usernames.contains("user1"));
+        }
+    }
+
+    @Test
+    public void itCanReportAFailingPermissionQuery() {
+        ACE read = new ACE();
+        read.setUsername("user1");
+        read.setPermission("Read");
+        read.setCreator("Administrator");
+        BatchReport<PermissionBatch.Entry> report = new PermissionBatch(nuxeoClient).addQuery("SELECT * FROM", read)
+                                                                                    .add("/folder_2", read)
+                                                                                    .execute();
+        assertFalse(report.isSuccessful());
+        assertEquals(Collections.singletonList(new PermissionBatch.Entry("/folder_2", read)), report.getSuccesses());
+        assertEquals(Collections.singleton(new PermissionBatch.Entry("SELECT * FROM", read)),
+                report.getFailures().keySet());
+    }
+
     @Test
     public void itCanFetchAudit() {
         Document root = nuxeoClient.repository().fetchDocumentRoot();
@@ -343,6 +462,297 @@ public class TestRepository extends TestBase {
         assertEquals("eventDocumentCategory", audit.getLogEntries().get(0).getCategory());
     }
 
+    @Test
+    public void itCanReadAuditIncrementally() {
+        Document root = nuxeoClient.repository().fetchDocumentRoot();
+        long total = root.fetchAudit()
+                         .getLogEntries()
+                         .stream()
+                         .filter(entry -> "eventDocumentCategory".equals(entry.getCategory()))
+                         .count();
+        AuditReader reader = new AuditReader(nuxeoClient, baseURL, root).categories("eventDocumentCategory")
+                                                                         .pageSize(1);
+        List<LogEntry> entries = new ArrayList<>();
+        for (LogEntry entry : reader) {
+            assertEquals("eventDocumentCategory", entry.getCategory());
+            entries.add(entry);
+        }
+        assertEquals(total, entries.size());
+        AuditReader.Cursor cursor = reader.getCursor();
+        assertEquals(entries.get(entries.size() - 1).getId(), cursor.getId());
+        assertEquals(entries.get(entries.size() - 1).getEventDate(), cursor.getEventDate());
+        // Nothing new since the cursor
+        assertEquals(0, new AuditReader(nuxeoClient, baseURL, root).since(cursor).stream().count());
+        assertEquals(0, new AuditReader(nuxeoClient, baseURL, root).eventIds("unknownEvent").stream().count());
+    }
+
+    @Test
+    public void itCanCacheDocumentsOnDisk() throws IOException {
+        File directory = Files.createTempDirectory("nuxeo-client-cache").toFile();
+        Document file = nuxeoClient.repository().fetchDocumentByPath("/folder_2/file");
+        try (DiskCache disk = new DiskCache(directory, 1024 * 1024)) {
+            DocumentDiskCache cache = new DocumentDiskCache(nuxeoClient, baseURL, disk);
+            Document cached = cache.fetchDocument(file.getId(), file.getChangeToken());
+            assertEquals(file.getPath(), cached.getPath());
+            assertNotNull(cache.fetchBlob(cached));
+            assertEquals(2, disk.size());
+        }
+        // Files which are not segments of the cache are left alone
+        assertTrue(new File(directory, "segment-x.dat").createNewFile());
+        // Cold start: served from the segments through the persisted index
+        try (DiskCache disk = new DiskCache(directory, 1024 * 1024)) {
+            assertEquals(2, disk.size());
+            DocumentDiskCache cache = new DocumentDiskCache(nuxeoClient, baseURL, disk);
+            assertEquals(file.getPath(), cache.getDocument(file.getId()).getPath());
+            // A new change token invalidates the cached version
+            file.setPropertyValue("dc:description", "updated");
+            Document updated = nuxeoClient.repository().updateDocument(file);
+            assertEquals("updated",
+                    cache.fetchDocument(file.getId(), updated.getChangeToken()).getPropertyValue("dc:description"));
+            assertEquals(updated.getChangeToken(), disk.getVersion("doc:" + file.getId()));
+            // The blob is cached under the change token returned by the server, not the stale one of the caller
+            assertNotNull(cache.fetchBlob(file.getId(), file.getChangeToken()));
+            assertEquals(updated.getChangeToken(), disk.getVersion("blob:" + file.getId()));
+        } finally {
+            FileUtils.deleteTree(directory);
+        }
+    }
+
+    @Test
+    public void itCanEvictAndCompactDiskCache() throws IOException {
+        File directory = Files.createTempDirectory("nuxeo-client-cache").toFile();
+        byte[] value = new byte[1000];
+        try (DiskCache disk = new DiskCache(directory, 10 * 1024, 4 * 1024)) {
+            for (int i = 0; i < 100; i++) {
+                disk.put("key" + i, "1", value);
+            }
+            assertTrue(disk.getLiveBytes() <= 10 * 1024);
+            assertNotNull(disk.get("key99", "1"));
+            assertEquals(null, disk.get("key0", "1"));
+            assertEquals(null, disk.get("key99", "2"));
+            // Only live records are kept once compacted
+            disk.compact();
+            assertTrue(disk.getSegmentCount() <= 3);
+            assertNotNull(disk.get("key99", "1"));
+        }
+        try (DiskCache disk = new DiskCache(directory, 10 * 1024, 4 * 1024)) {
+            assertNotNull(disk.get("key99", "1"));
+        } finally {
+            FileUtils.deleteTree(directory);
+        }
+    }
+
+    @Test
+    public void itCanRecoverFromACorruptedDiskCacheRecord() throws IOException {
+        File directory = Files.createTempDirectory("nuxeo-client-cache").toFile();
+        try {
+            try (DiskCache disk = new DiskCache(directory, 1024 * 1024)) {
+                disk.put("key0", "1", new byte[100]);
+            }
+            // Record header appended after the last flush, with a key length past the end of the segment
+            File segment = new File(directory, "segment-00000000.dat");
+            long flushed = segment.length();
+            ByteBuffer header = ByteBuffer.allocate(8).putInt(0x4E584352).putInt(Integer.MAX_VALUE - 4);
+            Files.write(segment.toPath(), header.array(), StandardOpenOption.APPEND);
+            try (DiskCache disk = new DiskCache(directory, 1024 * 1024)) {
+                assertEquals(1, disk.size());
+                assertNotNull(disk.get("key0", "1"));
+                assertEquals(flushed, segment.length());
+            }
+        } finally {
+            FileUtils.deleteTree(directory);
+        }
+    }
+
+    @Test
+    public void itCanEncodeDocumentsInBinary() throws IOException {
+        List<Document> documents = nuxeoClient.repository().query("SELECT * FROM Document").getDocuments();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DocumentCodec.Writer writer = new DocumentCodec.Writer(bytes)) {
+            for (Document document : documents) {
+                writer.write(document);
+            }
+        }
+        try (DocumentCodec.Reader reader = new DocumentCodec.Reader(new ByteArrayInputStream(bytes.toByteArray()))) {
+            for (Document document : documents) {
+                Document decoded = reader.read();
+                assertEquals(document.getUid(), decoded.getUid());
+                assertEquals(document.getPath(), decoded.getPath());
+                assertEquals(document.getChangeToken(), decoded.getChangeToken());
+                assertEquals(document.getProperties(), decoded.getProperties());
+            }
+            assertNull(reader.read());
+        }
+        Document note = documents.get(0);
+        assertEquals(note.getTitle(), DocumentCodec.decode(DocumentCodec.encode(note)).getTitle());
+    }
+
+    @Test
+    public void itCanEncodeNumbersWithTheirType() {
+        Map<String, Object> complex = new HashMap<>();
+        complex.put("size", 3L);
+        complex.put("ratio", 0.5f);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("uid:major_version", 1);
+        properties.put("dc:price", new BigDecimal("12.30"));
+        properties.put("dc:big", new BigInteger("123456789012345678901234567890"));
+        properties.put("dc:score", -2.5d);
+        properties.put("dc:complex", complex);
+        Document document = new Document("uid", "Note", null, null, "/note", null, null, null, null, null, null,
+                properties, null);
+        Map<String, Object> decoded = DocumentCodec.decode(DocumentCodec.encode(document)).getProperties();
+        assertEquals(properties, decoded);
+        assertEquals(Integer.class, decoded.get("uid:major_version").getClass());
+        assertEquals(new BigDecimal("12.30"), decoded.get("dc:price"));
+        assertEquals(Long.class, ((Map<?, ?>) decoded.get("dc:complex")).get("size").getClass());
+    }
+
+    @Test
+    public void itCanEncodeDates() {
+        Calendar issued = new GregorianCalendar(2015, Calendar.JUNE, 20, 12, 34, 56);
+        issued.setTimeZone(TimeZone.getTimeZone("America/New_York"));
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("dc:issued", issued);
+        properties.put("dc:modified", issued.getTime());
+        Document document = new Document("uid", "Note", null, null, "/note", null, null, null, null, null, null,
+                properties, null);
+        Map<String, Object> decoded = DocumentCodec.decode(DocumentCodec.encode(document)).getProperties();
+        Calendar calendar = (Calendar) decoded.get("dc:issued");
+        assertEquals(issued.getTimeInMillis(), calendar.getTimeInMillis());
+        assertEquals("America/New_York", calendar.getTimeZone().getID());
+        assertEquals(issued.get(Calendar.HOUR_OF_DAY), calendar.get(Calendar.HOUR_OF_DAY));
+        assertEquals(issued.getTime(), decoded.get("dc:modified"));
+
+        // Values without an encoding are not written as their string form
+        properties.put("dc:issued", new Object());
+        document = new Document("uid", "Note", null, null, "/note", null, null, null, null, null, null, properties,
+                null);
+        try {
+            DocumentCodec.encode(document);
+            fail("Should not encode an unsupported value");
+        } catch (IllegalArgumentException reason) {
+            assertTrue(reason.getMessage().startsWith("Unsupported value type"));
+        }
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void benchmarkDocumentCodec() {
+        List<Document> documents = nuxeoClient.repository().query("SELECT * FROM Document").getDocuments();
+        int rounds = 200;
+        long jsonBytes = 0;
+        long binaryBytes = 0;
+        // Warm up both paths before measuring
+        for (int i = 0; i < rounds; i++) {
+            for (Document document : documents) {
+                nuxeoClient.getConverterFactory().readJSON(nuxeoClient.getConverterFactory().writeJSON(document),
+                        Document.class);
+                DocumentCodec.decode(DocumentCodec.encode(document));
+            }
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (Document document : documents) {
+                String json = nuxeoClient.getConverterFactory().writeJSON(document);
+                jsonBytes += json.length();
+                nuxeoClient.getConverterFactory().readJSON(json, Document.class);
+            }
+        }
+        long jackson = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (Document document : documents) {
+                byte[] encoded = DocumentCodec.encode(document);
+                binaryBytes += encoded.length;
+                DocumentCodec.decode(encoded);
+            }
+        }
+        long binary = System.nanoTime() - start;
+        long operations = (long) rounds * documents.size();
+        log.info(String.format("Document round trip: jackson %d ns/op %d bytes/op, binary %d ns/op %d bytes/op",
+                jackson / operations, jsonBytes / operations, binary / operations, binaryBytes / operations));
+    }
+
+    @Test
+    public void itCanCompactDocumentProperties() {
+        PropertyKeys keys = new PropertyKeys();
+        Documents documents = nuxeoClient.repository().query("SELECT * FROM Note");
+        Map<String, Object> expected = new HashMap<>(documents.getDocument(0).getProperties());
+        keys.compact(documents);
+        Document note = documents.getDocument(0);
+        assertTrue(note.getProperties() instanceof CompactProperties);
+        assertEquals(expected, note.getProperties());
+        // Notes share their keys and their shape
+        for (Document document : documents.getDocuments()) {
+            assertEquals(note.getProperties().keySet(), document.getProperties().keySet());
+        }
+        note.setPropertyValue("dc:description", "compact");
+        assertEquals("compact", note.getPropertyValue("dc:description"));
+        assertTrue(keys.size() >= expected.size());
+    }
+
+    @Test
+    public void itCanShareKeysAcrossDocuments() {
+        for (int i = 0; i < 500; i++) {
+            DocumentModel note = session.createDocumentModel("/folder_1", "note" + i, "Note");
+            note.setPropertyValue("dc:title", "note" + i);
+            session.createDocument(note);
+        }
+        fetchInvalidations();
+        String query = "SELECT * FROM Note";
+        PropertyKeys keys = new PropertyKeys();
+        Documents notes = keys.compact(nuxeoClient.repository().query(query));
+        PropertyKeys.Shape shape = ((CompactProperties) notes.getDocument(0).getProperties()).getShape();
+        for (Document note : notes.getDocuments()) {
+            assertSame(shape, ((CompactProperties) note.getProperties()).getShape());
+        }
+        // The dictionary does not grow with the number of documents compacted
+        int keyCount = keys.size();
+        int shapeCount = keys.getShapeCount();
+        keys.compact(nuxeoClient.repository().query(query));
+        assertEquals(keyCount, keys.size());
+        assertEquals(shapeCount, keys.getShapeCount());
+    }
+
+    @Test
+    public void itCanBoundPropertyKeys() {
+        PropertyKeys keys = new PropertyKeys(3, 2);
+        for (int i = 0; i < 10; i++) {
+            CompactProperties properties = keys.compact(Collections.singletonMap("key" + i, "value"));
+            assertEquals("value", properties.get("key" + i));
+        }
+        assertEquals(3, keys.size());
+        assertEquals(2, keys.getShapeCount());
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void benchmarkPropertyFootprint() {
+        for (int i = 0; i < 1000; i++) {
+            DocumentModel note = session.createDocumentModel("/folder_1", "note" + i, "Note");
+            note.setPropertyValue("dc:title", "note" + i);
+            session.createDocument(note);
+        }
+        fetchInvalidations();
+        String query = "SELECT * FROM Note";
+        List<Map<String, Object>> plain = new ArrayList<>();
+        for (Document note : nuxeoClient.repository().query(query).getDocuments()) {
+            plain.add(note.getProperties());
+        }
+        PropertyKeys keys = new PropertyKeys();
+        List<Map<String, Object>> compact = new ArrayList<>();
+        for (Document note : keys.compact(nuxeoClient.repository().query(query)).getDocuments()) {
+            compact.add(note.getProperties());
+        }
+        assertEquals(plain.size(), compact.size());
+        // Sizes of the object graphs reachable from the properties, the shared dictionary included
+        long plainSize = GraphLayout.parseInstance(plain).totalSize();
+        long compactSize = GraphLayout.parseInstance(compact).totalSize();
+        assertTrue(compactSize < plainSize);
+        log.info(String.format("Retained size of the properties of %d notes: plain %d KB, compact %d KB",
+                plain.size(), plainSize / 1024, compactSize / 1024));
+    }
+
     @Test
     public void testMultiThread() throws InterruptedException {
         Thread t = new Thread(() -> {
@@ -412,6 +822,57 @@ public class TestRepository extends TestBase {
         assertTrue(((Map) document.getContextParameters().get("breadcrumb")).size() == 2);
     }
 
+    @Test
+    public void itCanScopeEnrichersToARequest() {
+        try (Enrichers enrichers = new Enrichers(nuxeoClient, baseURL,
+                new BasicAuthInterceptor("Administrator", "Administrator"))) {
+            Document folder = enrichers.fetchDocumentByPath("/folder_2", "acls", "breadcrumb");
+            assertEquals(1, ((List) folder.getContextParameters().get("acls")).size());
+            assertEquals(2, ((Map) folder.getContextParameters().get("breadcrumb")).size());
+            // Later calls of the client are not enriched
+            Map<String, Object> parameters = nuxeoClient.repository()
+                                                        .fetchDocumentByPath("/folder_2")
+                                                        .getContextParameters();
+            assertTrue(parameters == null || !parameters.containsKey("acls"));
+
+            Documents notes = enrichers.lazily(nuxeoClient.repository().query("SELECT * FROM Note"), "acls");
+            LazyEnrichedDocument note = (LazyEnrichedDocument) notes.getDocument(0);
+            assertFalse(note.isFetched());
+            assertNotNull(note.getContextParameters().get("acls"));
+            assertTrue(note.isFetched());
+        }
+    }
+
+    @Test
+    public void itCanNotFetchEnrichersOnceClosed() {
+        Enrichers enrichers = new Enrichers(nuxeoClient, baseURL,
+                new BasicAuthInterceptor("Administrator", "Administrator"), 1);
+        Documents notes = enrichers.lazily(nuxeoClient.repository().query("SELECT * FROM Note"), "acls");
+        // Queue every fetch behind the single thread, then close before they all ran
+        for (Document note : notes.getDocuments()) {
+            ((LazyEnrichedDocument) note).prefetch();
+        }
+        enrichers.close();
+        for (Document note : notes.getDocuments()) {
+            LazyEnrichedDocument lazy = (LazyEnrichedDocument) note;
+            assertTrue(lazy.prefetch().isDone());
+            if (lazy.prefetch().isCompletedExceptionally()) {
+                try {
+                    lazy.getContextParameters();
+                    fail("Should fail once closed");
+                } catch (NuxeoClientException reason) {
+                    // expected
+                }
+            }
+        }
+        try {
+            enrichers.lazily(notes.getDocument(0), "acls").getContextParameters();
+            fail("Should fail once closed");
+        } catch (NuxeoClientException reason) {
+            assertEquals("Enrichers are closed", reason.getMessage());
+        }
+    }
+
     @Ignore("NXP-19295 - We don't want to use that use case anymore. But keeping the test for explanation")
     @Test
     public void itCanHandleComplexPropertiesWithJson() throws IOException {
@@ -494,4 +955,180 @@ public class TestRepository extends TestBase {
         assertEquals(1, fields.size());
         assertEquals(1, fields.get(0).getRoles().size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void itCanSkipMalformedFieldValues() throws IOException {
+        String json = "{\"roles\":{\"role\":\"Decision\"},\"columnName\":\"columnName\"}";
+        try (JsonParser jp = new ObjectMapper().getFactory().createParser(json)) {
+            jp.nextToken();
+            Field field = Field.read(jp);
+            assertNull(field.getRoles());
+            assertEquals("columnName", field.getColumnName());
+        }
+        json = "{\"roles\":[\"Decision\",{\"role\":\"other\"}],\"name\":\"name\"}";
+        try (JsonParser jp = new ObjectMapper().getFactory().createParser(json)) {
+            jp.nextToken();
+            Field field = Field.read(jp);
+            assertEquals(Collections.singletonList("Decision"), field.getRoles());
+            assertEquals("name", field.getName());
+        }
+        try {
+            new Field("name");
+            fail("A string is not a field");
+        } catch (IllegalArgumentException reason) {
+            assertEquals("Not a field: name", reason.getMessage());
+        }
+    }
+
+    @Test
+    public void itCanBindComplexPropertiesWhileParsing() {
+        Document document = new Document("file", "DataSet");
+        List<String> roles = new ArrayList<>();
+        roles.add("BenchmarkIndicator");
+        List<Field> fields = new ArrayList<>();
+        fields.add(new Field("string", "description", roles, "columnName", "sqlTypeHint", "name"));
+        document.setPropertyValue("ds:fields", fields);
+        nuxeoClient.repository().createDocumentByPath("/folder_1", document);
+
+        DocumentMarshaller marshaller = new DocumentMarshaller().withReader("ds:fields",
+                PropertyReader.listOf(Field::read)).withType("DataSet", DataSet::new);
+        try {
+            Document fetched = nuxeoClient.registerMarshaller(marshaller)
+                                          .repository()
+                                          .fetchDocumentByPath("/folder_1/file");
+            assertTrue(fetched instanceof DataSet);
+            List<?> bound = fetched.getPropertyValue("ds:fields");
+            assertTrue(bound.get(0) instanceof Field);
+            Field field = ((DataSet) fetched).getFields().get(0);
+            assertEquals("columnName", field.getColumnName());
+            assertEquals(roles, field.getRoles());
+        } finally {
+            nuxeoClient.clearMarshaller();
+        }
+    }
+
+    @Test
+    public void itCanUpdateOnlyDirtyProperties() {
+        Document note = nuxeoClient.repository().fetchDocumentByPath("/folder_1/note_0");
+        DirtyTracker tracker = new DirtyTracker(note);
+        assertFalse(tracker.isDirty());
+        note.setPropertyValue("dc:nature", "test");
+        assertEquals(1, tracker.getDirtyProperties().size());
+        assertEquals("test", tracker.getDirtyProperties().get("dc:nature"));
+
+        int fullBytes = nuxeoClient.getConverterFactory().writeJSON(note).length();
+        int patchBytes = nuxeoClient.getConverterFactory().writeJSON(tracker.getPatch()).length();
+        assertTrue(patchBytes < fullBytes);
+        log.info(String.format("Update body: full document %d bytes, dirty properties %d bytes", fullBytes,
+                patchBytes));
+
+        Document updated = tracker.update(nuxeoClient);
+        assertEquals("test", updated.get("dc:nature"));
+        assertEquals("Note 0", updated.get("dc:title"));
+        assertFalse(tracker.isDirty());
+        // Nothing to send once clean
+        AtomicInteger calls = new AtomicInteger();
+        BasicAuthInterceptor authentication = new BasicAuthInterceptor("Administrator", "Administrator");
+        nuxeoClient.setAuthenticationMethod(chain -> {
+            calls.incrementAndGet();
+            return authentication.intercept(chain);
+        });
+        assertSame(updated, tracker.update(nuxeoClient));
+        assertEquals(0, calls.get());
+        nuxeoClient.repository().fetchDocumentByPath("/folder_1/note_0");
+        assertEquals(1, calls.get());
+
+        // A removed property is reset on the server
+        updated.getProperties().remove("dc:nature");
+        assertEquals(Collections.singletonMap("dc:nature", null), tracker.getDirtyProperties());
+    }
+
+    @Test
+    public void itCanProjectProperties() throws IOException {
+        Projection projection = new Projection(nuxeoClient, baseURL).properties("dc:title");
+        Document note = projection.fetchDocumentByPath("/folder_1/note_0");
+        assertEquals("Note", note.getType());
+        assertEquals("Note 0", note.getTitle());
+        assertEquals(1, note.getProperties().size());
+
+        long start = System.nanoTime();
+        Documents documents = nuxeoClient.repository().query("SELECT * FROM Note");
+        long fullTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        List<Document> projected = projection.query("FROM Note");
+        long projectedTime = System.nanoTime() - start;
+        assertEquals(documents.size(), projected.size());
+
+        String url = HttpUrl.parse(baseURL + ConstantsV1.API_PATH + "query")
+                            .newBuilder()
+                            .addQueryParameter("query", "SELECT * FROM Note")
+                            .build()
+                            .toString();
+        okhttp3.Response response = nuxeoClient.get(url);
+        long fullBytes = response.body().bytes().length;
+        response.close();
+        assertTrue(projection.getLastPayloadBytes() < fullBytes);
+        log.info(String.format("Note listing: full %d bytes in %d ms, projected %d bytes in %d ms", fullBytes,
+                fullTime / 1000000, projection.getLastPayloadBytes(), projectedTime / 1000000));
+    }
+
+    @Test
+    public void itCanProjectListProperties() {
+        Document note = new Document("note_0", "Note");
+        note.setId(nuxeoClient.repository().fetchDocumentByPath("/folder_1/note_0").getId());
+        note.setPropertyValue("dc:subjects", Arrays.asList("art/architecture", "art/comics"));
+        nuxeoClient.repository().updateDocument(note);
+
+        Projection projection = new Projection(nuxeoClient, baseURL).properties("dc:title", "dc:subjects/*");
+        note = projection.fetchDocumentByPath("/folder_1/note_0");
+        assertEquals("Note 0", note.getTitle());
+        assertEquals(Arrays.asList("art/architecture", "art/comics"), note.getProperties().get("dc:subjects"));
+
+        // One document per note, whatever the number of subjects
+        List<Document> projected = projection.query("FROM Note");
+        assertEquals(nuxeoClient.repository().query("SELECT * FROM Note").size(), projected.size());
+        for (Document document : projected) {
+            if (!document.getId().equals(note.getId())) {
+                assertEquals(Collections.emptyList(), document.getProperties().get("dc:subjects"));
+            }
+        }
+    }
+
+    @Test
+    public void itCanFanOutQueries() {
+        int notes = nuxeoClient.repository().query("SELECT * FROM Note").size();
+        // The same repository twice stands for two shards
+        try (FanOutQuery query = new FanOutQuery(nuxeoClient, baseURL, Arrays.asList("test", "test"))) {
+            List<Document> merged = query.query("SELECT * FROM Note")
+                                         .sortBy("dc:title", true)
+                                         .pageSize(2)
+                                         .stream()
+                                         .collect(Collectors.toList());
+            assertEquals(2 * notes, merged.size());
+            for (int i = 1; i < merged.size(); i++) {
+                assertTrue(merged.get(i - 1).getTitle().compareTo(merged.get(i).getTitle()) <= 0);
+            }
+            FanOutQuery.Metrics metrics = query.getMetrics().get("test");
+            assertEquals(2 * notes, metrics.getDocuments());
+            log.info("Fan out query on test: " + metrics);
+        }
+    }
+
+    @Test
+    public void itCanOrderFanOutSortValuesByType() {
+        // Numbers by value, where their strings would put 10 first
+        assertTrue(FanOutQuery.compareValues(9, 10L) < 0);
+        assertEquals(0, FanOutQuery.compareValues(2, new BigDecimal("2.0")));
+        assertTrue(FanOutQuery.compareValues(-1.5d, new BigInteger("1")) < 0);
+        Calendar first = new GregorianCalendar(2015, Calendar.JUNE, 20);
+        Calendar second = new GregorianCalendar(2015, Calendar.JULY, 14);
+        assertTrue(FanOutQuery.compareValues(first, second) < 0);
+        assertTrue(FanOutQuery.compareValues("b", "a") > 0);
+        try {
+            FanOutQuery.compareValues("10", 9);
+            fail("Values of different types need a comparator");
+        } catch (IllegalArgumentException reason) {
+            assertTrue(reason.getMessage().endsWith("set a comparator"));
+        }
+    }
+}
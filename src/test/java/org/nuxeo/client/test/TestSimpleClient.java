@@ -21,8 +21,15 @@ package org.nuxeo.client.test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 import okhttp3.Response;
 
@@ -32,6 +39,12 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.nuxeo.client.api.ConstantsV1;
 import org.nuxeo.client.api.objects.Document;
+import org.nuxeo.client.api.objects.Documents;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+import org.nuxeo.client.internals.spi.auth.BasicAuthInterceptor;
+import org.nuxeo.client.test.harness.WorkerServerFeature;
+import org.nuxeo.client.test.marshallers.DocumentMarshaller;
+import org.nuxeo.client.test.stream.StreamingClient;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
 import org.nuxeo.ecm.restapi.test.RestServerFeature;
@@ -43,7 +56,7 @@ import org.nuxeo.runtime.test.runner.Jetty;
  * @since 0.1
  */
 @RunWith(FeaturesRunner.class)
-@Features({ RestServerFeature.class })
+@Features({ RestServerFeature.class, WorkerServerFeature.class })
 @Jetty(port = 18090)
 @RepositoryConfig(cleanup = Granularity.METHOD)
 public class TestSimpleClient extends TestBase {
@@ -78,4 +91,49 @@ public class TestSimpleClient extends TestBase {
         assertEquals("new title", document.getTitle());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void itCanStreamBodies() throws IOException {
+        StreamingClient client = new StreamingClient(nuxeoClient, baseURL,
+                new BasicAuthInterceptor("Administrator", "Administrator")).header("X-NXproperties", "*");
+        byte[] body = "{\"entity-type\": \"document\",\"properties\": {\"dc:title\": \"streamed title\"}}".getBytes(
+                StandardCharsets.UTF_8);
+        try (Response response = client.put("path/", new ByteArrayInputStream(body), StreamingClient.JSON)) {
+            assertTrue(response.isSuccessful());
+        }
+        try (Response response = client.put("path/", ByteBuffer.wrap(body), StreamingClient.JSON)) {
+            assertTrue(response.isSuccessful());
+        }
+        Map<?, ?> root = client.fetchJSON("path/", Map.class);
+        assertEquals("Root", root.get("type"));
+        assertEquals("streamed title", ((Map<?, ?>) root.get("properties")).get("dc:title"));
+        Document document = client.fetchJSON("path/", Document.class);
+        assertEquals("Root", document.getType());
+        assertEquals("streamed title", document.getTitle());
+        Documents documents = client.fetchJSON("query?query=SELECT * FROM Document", Documents.class);
+        assertTrue(documents.size() != 0);
+        // Registered marshallers read the streamed responses
+        try {
+            nuxeoClient.registerMarshaller(new DocumentMarshaller().withType("Root", read -> {
+                read.setTitle("marshalled");
+                return read;
+            }));
+            assertEquals("marshalled", client.fetchJSON("path/", Document.class).getTitle());
+        } finally {
+            nuxeoClient.clearMarshaller();
+        }
+
+        ByteArrayOutputStream relayed = new ByteArrayOutputStream();
+        long size = client.transfer("path/", relayed);
+        assertEquals(size, relayed.size());
+        assertEquals("Root", client.readJSON(new ByteArrayInputStream(relayed.toByteArray()), Map.class).get("type"));
+        assertEquals(1, client.getBufferPool().getPooled());
+
+        try {
+            client.fetchJSON("path/wrong", Map.class);
+            fail("Should be not found");
+        } catch (NuxeoClientException reason) {
+            assertEquals(404, reason.getStatus());
+        }
+    }
+
+}
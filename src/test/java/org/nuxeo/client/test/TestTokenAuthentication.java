@@ -0,0 +1,163 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.user.CurrentUser;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+import org.nuxeo.client.test.auth.TokenAuthentication;
+import org.nuxeo.client.test.harness.TestServer;
+import org.nuxeo.client.test.harness.WorkerServerFeature;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.restapi.test.RestServerFeature;
+import org.nuxeo.ecm.tokenauth.service.TokenAuthenticationService;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.Jetty;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+
+/**
+ * @since 2.2
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ RestServerFeature.class, WorkerServerFeature.class })
+@Jetty(port = 18090)
+@Deploy("org.nuxeo.ecm.platform.login.token")
+@LocalDeploy("org.nuxeo.java.client.test:test-token-servlet-contrib.xml")
+@RepositoryConfig(cleanup = Granularity.METHOD)
+public class TestTokenAuthentication extends TestBase {
+
+    @Inject
+    protected TokenAuthenticationService tokenAuthenticationService;
+
+    protected final AtomicInteger acquired = new AtomicInteger();
+
+    protected String acquireToken() {
+        return tokenAuthenticationService.acquireToken("Administrator", "nuxeo-java-client",
+                "device-" + acquired.incrementAndGet(), null, "rw");
+    }
+
+    @Test
+    public void itCanLoginWithToken() {
+        // No credentials on the client, only the token
+        NuxeoClient client = new NuxeoClient(TestServer.getURL(), null, null);
+        TokenAuthentication authentication = new TokenAuthentication(client, this::acquireToken);
+        CurrentUser currentUser = authentication.fetchCurrentUser();
+        assertNotNull(currentUser);
+        assertEquals("Administrator", currentUser.getUsername());
+        assertSame(currentUser, authentication.fetchCurrentUser());
+        assertEquals("Root", authentication.getClient().repository().fetchDocumentRoot().getType());
+        assertEquals(1, acquired.get());
+    }
+
+    @Test
+    public void itCanAcquireTokenFromEndpoint() {
+        Supplier<String> endpoint = TokenAuthentication.tokenEndpoint(TestServer.getURL(), "Administrator",
+                "Administrator", "nuxeo-java-client", "endpoint-device");
+        NuxeoClient client = new NuxeoClient(TestServer.getURL(), null, null);
+        TokenAuthentication authentication = new TokenAuthentication(client, endpoint);
+        String token = authentication.getToken();
+        assertEquals("Administrator", tokenAuthenticationService.getUserName(token));
+        assertEquals("Administrator", authentication.fetchCurrentUser().getUsername());
+        assertEquals("Root", authentication.getClient().repository().fetchDocumentRoot().getType());
+    }
+
+    @Test
+    public void itCanNotAcquireTokenWithWrongCredentials() {
+        Supplier<String> endpoint = TokenAuthentication.tokenEndpoint(TestServer.getURL(), "Administrator", "wrong",
+                "nuxeo-java-client", "endpoint-device");
+        try {
+            endpoint.get();
+            fail("Should be non authorized");
+        } catch (NuxeoClientException reason) {
+            assertTrue(reason.getMessage().contains("status 401"));
+        }
+    }
+
+    @Test
+    public void itCanRefreshToken() throws InterruptedException {
+        NuxeoClient client = new NuxeoClient(TestServer.getURL(), null, null);
+        TokenAuthentication authentication = new TokenAuthentication(client, this::acquireToken).maxAge(100,
+                TimeUnit.MILLISECONDS);
+        String token = authentication.getToken();
+        CurrentUser currentUser = authentication.fetchCurrentUser();
+        Thread.sleep(200);
+        assertNotEquals(token, authentication.getToken());
+        assertEquals(2, acquired.get());
+        assertNotSame(currentUser, authentication.fetchCurrentUser());
+    }
+
+    @Test
+    public void itCanRefreshTokenOnAnyRequest() throws InterruptedException {
+        NuxeoClient client = new NuxeoClient(TestServer.getURL(), null, null);
+        new TokenAuthentication(client, this::acquireToken).maxAge(100, TimeUnit.MILLISECONDS);
+        // Requests going through the client directly are authenticated too
+        assertEquals("Root", client.repository().fetchDocumentRoot().getType());
+        assertEquals(1, acquired.get());
+        Thread.sleep(200);
+        assertEquals("Root", client.repository().fetchDocumentRoot().getType());
+        assertEquals(2, acquired.get());
+    }
+
+    @Test
+    public void itCanRefreshRevokedToken() {
+        NuxeoClient client = new NuxeoClient(TestServer.getURL(), null, null);
+        TokenAuthentication authentication = new TokenAuthentication(client, this::acquireToken);
+        String token = authentication.getToken();
+        tokenAuthenticationService.revokeToken(token);
+        // The rejected request is sent again with a new token
+        assertEquals("Administrator", authentication.fetchCurrentUser().getUsername());
+        assertEquals(2, acquired.get());
+        assertNotEquals(token, authentication.getToken());
+    }
+
+    @Test
+    public void itCanFailWithRevokedToken() {
+        NuxeoClient client = new NuxeoClient(TestServer.getURL(), null, null);
+        TokenAuthentication authentication = new TokenAuthentication(client, () -> {
+            String token = acquireToken();
+            tokenAuthenticationService.revokeToken(token);
+            return token;
+        });
+        try {
+            authentication.fetchCurrentUser();
+            fail("Should be non authorized");
+        } catch (NuxeoClientException reason) {
+            assertEquals(401, reason.getStatus());
+        }
+        // Sent again once only
+        assertEquals(2, acquired.get());
+    }
+
+}
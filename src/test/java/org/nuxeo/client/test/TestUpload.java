@@ -36,11 +36,12 @@ import org.nuxeo.client.api.objects.Operation;
 import org.nuxeo.client.api.objects.blob.Blob;
 import org.nuxeo.client.api.objects.upload.BatchFile;
 import org.nuxeo.client.api.objects.upload.BatchUpload;
+import org.nuxeo.client.test.harness.SnapshotRepositoryInit;
+import org.nuxeo.client.test.harness.WorkerServerFeature;
 import org.nuxeo.common.utils.FileUtils;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
 import org.nuxeo.ecm.restapi.test.RestServerFeature;
-import org.nuxeo.ecm.restapi.test.RestServerInit;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
 import org.nuxeo.runtime.test.runner.Jetty;
@@ -50,9 +51,9 @@ import org.nuxeo.transientstore.test.TransientStoreFeature;
  * @since 0.1
  */
 @RunWith(FeaturesRunner.class)
-@Features({ TransientStoreFeature.class, RestServerFeature.class })
+@Features({ TransientStoreFeature.class, RestServerFeature.class, WorkerServerFeature.class })
 @Jetty(port = 18090)
-@RepositoryConfig(cleanup = Granularity.METHOD, init = RestServerInit.class)
+@RepositoryConfig(cleanup = Granularity.METHOD, init = SnapshotRepositoryInit.class)
 public class TestUpload extends TestBase {
 
     @Before
@@ -20,19 +20,33 @@ package org.nuxeo.client.test;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.TestCase.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.experimental.categories.Category;
 import org.junit.runner.RunWith;
 import org.nuxeo.client.api.objects.user.Group;
 import org.nuxeo.client.api.objects.user.User;
 import org.nuxeo.client.api.objects.user.UserManager;
 import org.nuxeo.client.internals.spi.NuxeoClientException;
+import org.nuxeo.client.test.batch.BatchReport;
+import org.nuxeo.client.test.harness.Benchmark;
+import org.nuxeo.client.test.harness.WorkerServerFeature;
+import org.nuxeo.client.test.user.CachingUserManager;
+import org.nuxeo.client.test.user.UserProvisioner;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
 import org.nuxeo.ecm.restapi.test.RestServerFeature;
@@ -44,11 +58,13 @@ import org.nuxeo.runtime.test.runner.Jetty;
  * @since 0.1
  */
 @RunWith(FeaturesRunner.class)
-@Features({ RestServerFeature.class })
+@Features({ RestServerFeature.class, WorkerServerFeature.class })
 @Jetty(port = 18090)
 @RepositoryConfig(cleanup = Granularity.METHOD)
 public class TestUserGroup extends TestBase {
 
+    private static final Log log = LogFactory.getLog(TestUserGroup.class);
+
     @Before
     public void authentication() {
         login();
@@ -191,4 +207,118 @@ public class TestUserGroup extends TestBase {
         assertEquals(3, user.getGroups().size());
         assertEquals("members", user.getGroups().get(1));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void itCanCacheUsersAndGroups() {
+        CachingUserManager userManager = new CachingUserManager(nuxeoClient);
+        User user = userManager.fetchUser("Administrator");
+        assertSame(user, userManager.fetchUser("Administrator"));
+        Group group = userManager.fetchGroup("administrators");
+        assertSame(group, userManager.fetchGroup("administrators"));
+        userManager.createGroup(createGroup());
+        assertNotSame(user, userManager.fetchUser("Administrator"));
+        user = userManager.fetchUser("Administrator");
+        userManager.attachGroupToUser("members", "Administrator");
+        User updated = userManager.fetchUser("Administrator");
+        assertNotSame(user, updated);
+        assertEquals(3, updated.getGroups().size());
+    }
+
+    @Test
+    public void itCanFetchUsersInBatch() {
+        CachingUserManager userManager = new CachingUserManager(nuxeoClient);
+        User administrator = userManager.fetchUser("Administrator");
+        userManager.createUser(createUser());
+        Map<String, User> users = userManager.fetchUsers(Arrays.asList("toto", "Administrator", "unknown", "toto"));
+        assertEquals(2, users.size());
+        assertEquals(Arrays.asList("toto", "Administrator"), new ArrayList<>(users.keySet()));
+        assertSame(administrator, users.get("Administrator"));
+        assertEquals("toto@nuxeo.com", users.get("toto").getEmail());
+        assertEquals(2, userManager.fetchGroups(Arrays.asList("administrators", "members")).size());
+    }
+
+    @Test
+    public void itCanNotHideFailuresOfABatchFetch() {
+        CachingUserManager userManager = new CachingUserManager(nuxeoClient) {
+            @Override
+            public User fetchUser(String userName) {
+                if ("broken".equals(userName)) {
+                    throw new NuxeoClientException("Server down");
+                }
+                return super.fetchUser(userName);
+            }
+        };
+        try {
+            userManager.fetchUsers(Arrays.asList("Administrator", "unknown", "broken"));
+            fail("Should not be reported as an unknown user");
+        } catch (NuxeoClientException reason) {
+            assertEquals("Server down", reason.getMessage());
+        }
+    }
+
+    @Test
+    public void itCanProvisionUsersAndGroups() {
+        List<User> users = createUsers("provisioned", 10);
+        User existing = new User();
+        existing.setUserName("Administrator");
+        users.add(existing);
+        BatchReport<String> report = new UserProvisioner(nuxeoClient).batchSize(4).parallelism(2).createUsers(users);
+        assertEquals(11, report.size());
+        assertEquals(10, report.getSuccesses().size());
+        // Administrator already exists
+        assertEquals(Collections.singleton("Administrator"), report.getFailures().keySet());
+        assertEquals("provisioned0@nuxeo.com", nuxeoClient.getUserManager().fetchUser("provisioned0").getEmail());
+
+        Group group = createGroup();
+        group.setMemberUsers(new ArrayList<>());
+        report = new UserProvisioner(nuxeoClient).createGroups(Collections.singletonList(group));
+        Assert.assertTrue(report.isSuccessful());
+        Map<String, List<String>> memberships = new HashMap<>();
+        memberships.put("provisioned0", Arrays.asList("totogroup", "members"));
+        memberships.put("provisioned1", Collections.singletonList("totogroup"));
+        report = new UserProvisioner(nuxeoClient).addUsersToGroups(memberships);
+        Assert.assertTrue(report.isSuccessful());
+        assertEquals(3, report.size());
+        Assert.assertTrue(nuxeoClient.getUserManager().fetchUser("provisioned1").getGroups().contains("totogroup"));
+
+        for (User user : users) {
+            user.setCompany("Nuxeo Provisioned");
+        }
+        report = new UserProvisioner(nuxeoClient).updateUsers(users.subList(0, 10));
+        Assert.assertTrue(report.isSuccessful());
+        assertEquals("Nuxeo Provisioned", nuxeoClient.getUserManager().fetchUser("provisioned9").getCompany());
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void benchmarkUserProvisioning() {
+        int count = 100;
+        UserManager userManager = nuxeoClient.getUserManager();
+        long start = System.nanoTime();
+        for (User user : createUsers("sequential", count)) {
+            userManager.createUser(user);
+        }
+        long sequential = System.nanoTime() - start;
+        start = System.nanoTime();
+        BatchReport<String> report = new UserProvisioner(nuxeoClient).parallelism(8)
+                                                                      .createUsers(createUsers("batched", count));
+        long batched = System.nanoTime() - start;
+        Assert.assertTrue(report.isSuccessful());
+        assertEquals(count, report.getSuccesses().size());
+        log.info(String.format("Provisioned %d users: one at a time %d ms, batched %d ms", count,
+                sequential / 1000000, batched / 1000000));
+    }
+
+    protected List<User> createUsers(String prefix, int count) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.setUserName(prefix + i);
+            user.setEmail(prefix + i + "@nuxeo.com");
+            user.setFirstName(prefix);
+            user.setLastName(String.valueOf(i));
+            users.add(user);
+        }
+        return users;
+    }
+}
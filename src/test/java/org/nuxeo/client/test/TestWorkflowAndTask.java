@@ -20,6 +20,8 @@ package org.nuxeo.client.test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -30,11 +32,18 @@ import org.junit.runner.RunWith;
 import org.nuxeo.client.api.objects.Document;
 import org.nuxeo.client.api.objects.task.Task;
 import org.nuxeo.client.api.objects.task.TaskCompletionRequest;
+import org.nuxeo.client.api.objects.task.TaskManager;
 import org.nuxeo.client.api.objects.task.Tasks;
 import org.nuxeo.client.api.objects.workflow.Graph;
 import org.nuxeo.client.api.objects.workflow.Workflow;
 import org.nuxeo.client.api.objects.workflow.Workflows;
 import org.nuxeo.client.internals.spi.NuxeoClientException;
+import org.nuxeo.client.test.batch.BatchReport;
+import org.nuxeo.client.test.batch.BatchRunner;
+import org.nuxeo.client.test.harness.WorkerServerFeature;
+import org.nuxeo.client.test.task.TaskBatch;
+import org.nuxeo.client.test.task.TaskInbox;
+import org.nuxeo.client.test.workflow.WorkflowModelCache;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
 import org.nuxeo.ecm.platform.routing.test.WorkflowFeature;
@@ -45,13 +54,17 @@ import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
 import org.nuxeo.runtime.test.runner.Jetty;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * @since 0.1
  */
 @RunWith(FeaturesRunner.class)
-@Features({ RestServerFeature.class, WorkflowFeature.class })
+@Features({ RestServerFeature.class, WorkflowFeature.class, WorkerServerFeature.class })
 @Deploy({ "org.nuxeo.ecm.platform.restapi.server.routing", "org.nuxeo.ecm.platform.routing.default",
         "org.nuxeo.ecm.platform.filemanager.api", "org.nuxeo.ecm.platform.filemanager.core" })
 @Jetty(port = 18090)
@@ -84,6 +97,23 @@ public class TestWorkflowAndTask extends TestBase {
         assertNotNull(graph);
     }
 
+    @Test
+    public void itCanCacheWorkflowModels() {
+        WorkflowModelCache cache = new WorkflowModelCache(nuxeoClient);
+        String modelName = getOneWorkflowModel().getWorkflowModelName();
+        Workflow model = cache.getWorkflowModel(modelName);
+        assertSame(model, cache.getWorkflowModel(modelName));
+        Graph graph = cache.getWorkflowModelGraph(modelName);
+        assertNotNull(graph);
+        assertSame(graph, cache.getWorkflowModelGraph(modelName));
+        Workflow workflow = cache.startWorkflowInstanceWithDocPath("/", modelName);
+        assertNotNull(workflow);
+        assertEquals(modelName, workflow.getWorkflowModelName());
+        cache.invalidate(modelName);
+        assertNotSame(model, cache.getWorkflowModel(modelName));
+        assertNotSame(graph, cache.getWorkflowModelGraph(modelName));
+    }
+
     @Test
     public void itCanCancelWorkflow() {
         Workflow workflow = nuxeoClient.repository().fetchDocumentRoot().startWorkflowInstance(getOneWorkflowModel());
@@ -158,6 +188,67 @@ public class TestWorkflowAndTask extends TestBase {
         }
     }
 
+    @Test
+    public void itCanPageTaskInbox() {
+        Tasks tasks = fetchAllTasks();
+        TaskInbox inbox = new TaskInbox(nuxeoClient, baseURL).userId("Administrator").pageSize(1);
+        assertEquals(1, inbox.fetchPage(0).size());
+        List<String> ids = inbox.stream().map(Task::getId).collect(Collectors.toList());
+        assertEquals(tasks.size(), ids.size());
+        assertTrue(ids.contains(tasks.get(0).getId()));
+    }
+
+    @Test
+    public void itCanReAssignInBatch() {
+        Tasks tasks = fetchAllTasks();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            ids.add(tasks.get(i).getId());
+        }
+        ids.add("unknown");
+        BatchReport<String> report = new TaskBatch(nuxeoClient, new BatchRunner(2)).reassign(ids, "Administrator",
+                "some comment");
+        // Not possible to reassign these tasks, each one is reported
+        assertEquals(ids.size(), report.size());
+        assertEquals(ids.size(), report.getFailures().size());
+        assertTrue(report.getFailures().containsKey("unknown"));
+        assertEquals(500, report.getFailures().get(ids.get(0)).getStatus());
+    }
+
+    @Ignore("JAVACLIENT-81")
+    @Test
+    public void itCanDelegateInBatch() {
+        Tasks tasks = fetchAllTasks();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            ids.add(tasks.get(i).getId());
+        }
+        BatchReport<String> report = new TaskBatch(nuxeoClient, new BatchRunner(2)).delegate(ids, "Administrator",
+                "some comment");
+        assertTrue(report.isSuccessful());
+        assertEquals(new HashSet<>(ids), new HashSet<>(report.getSuccesses()));
+    }
+
+    @Test
+    public void itCanReportEveryItemOfABatch() {
+        Tasks tasks = fetchAllTasks();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            ids.add(tasks.get(i).getId());
+        }
+        ids.add("broken");
+        TaskManager taskManager = nuxeoClient.getTaskManager();
+        BatchReport<String> report = new BatchRunner(2).run(ids, taskId -> {
+            if ("broken".equals(taskId)) {
+                throw new IllegalStateException("Broken item");
+            }
+            taskManager.fetchTask(taskId);
+        });
+        assertEquals(ids.size(), report.size());
+        assertEquals(tasks.size(), report.getSuccesses().size());
+        assertTrue(report.getFailures().get("broken").getCause() instanceof IllegalStateException);
+    }
+
     protected Tasks fetchAllTasks() {
         nuxeoClient.repository().fetchDocumentRoot().startWorkflowInstance(getOneWorkflowModel());
         Workflows workflows = nuxeoClient.fetchCurrentUser().fetchWorkflowInstances();
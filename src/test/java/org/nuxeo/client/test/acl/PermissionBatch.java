@@ -0,0 +1,255 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.acl;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.Document;
+import org.nuxeo.client.api.objects.Documents;
+import org.nuxeo.client.api.objects.Operation;
+import org.nuxeo.client.api.objects.RecordSet;
+import org.nuxeo.client.api.objects.acl.ACE;
+import org.nuxeo.client.api.objects.operation.DocRef;
+import org.nuxeo.client.api.objects.operation.DocRefs;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+import org.nuxeo.client.test.batch.BatchReport;
+
+/**
+ * Applies many ACEs on many documents with a few automation calls instead of one
+ * {@link Document#addPermission(ACE)} call per couple.
+ * <p>
+ * Entries sharing the same ACE are grouped and sent as a single {@code Document.AddPermission} call taking the
+ * documents as input, split in chunks of {@link #batchSize(int)} documents. Queries are resolved page by page, in
+ * pages of {@link #queryPageSize(int)} documents at most, until an empty page: the server may cap the page size. A
+ * query which fails is reported as a failed entry, its ACE being applied on none of its documents, and does not prevent
+ * the other entries from being applied.
+ *
+ * @since 2.2
+ */
+public class PermissionBatch {
+
+    public static final String ADD_PERMISSION_OPERATION = "Document.AddPermission";
+
+    public static final String LOCAL_ACL = "local";
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    public static final int DEFAULT_QUERY_PAGE_SIZE = 100;
+
+    protected final NuxeoClient nuxeoClient;
+
+    protected final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Queries, as the reference of their entry, in the order they were added.
+     */
+    protected final List<Entry> queries = new ArrayList<>();
+
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+
+    protected int queryPageSize = DEFAULT_QUERY_PAGE_SIZE;
+
+    public PermissionBatch(NuxeoClient nuxeoClient) {
+        this.nuxeoClient = nuxeoClient;
+    }
+
+    public PermissionBatch batchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public PermissionBatch queryPageSize(int queryPageSize) {
+        if (queryPageSize <= 0) {
+            throw new IllegalArgumentException("Query page size must be positive: " + queryPageSize);
+        }
+        this.queryPageSize = queryPageSize;
+        return this;
+    }
+
+    /**
+     * @param docRef the document id or path.
+     */
+    public PermissionBatch add(String docRef, ACE ace) {
+        entries.add(new Entry(docRef, ace));
+        return this;
+    }
+
+    public PermissionBatch add(Document document, ACE ace) {
+        return add(document.getId(), ace);
+    }
+
+    /**
+     * Applies the ACE on every document returned by the given NXQL query, resolved when the batch is executed. The same
+     * query can be added with several ACEs.
+     */
+    public PermissionBatch addQuery(String query, ACE ace) {
+        queries.add(new Entry(query, ace));
+        return this;
+    }
+
+    public BatchReport<Entry> execute() {
+        BatchReport<Entry> report = new BatchReport<>();
+        List<Entry> toApply = new ArrayList<>(entries);
+        for (Entry query : queries) {
+            Set<String> uuids;
+            try {
+                uuids = resolve(query.getDocRef(), report);
+            } catch (NuxeoClientException reason) {
+                report.failure(query, reason);
+                continue;
+            }
+            for (String uuid : uuids) {
+                toApply.add(new Entry(uuid, query.getAce()));
+            }
+        }
+        Map<String, List<Entry>> byAce = new LinkedHashMap<>();
+        for (Entry entry : toApply) {
+            byAce.computeIfAbsent(key(entry.getAce()), k -> new ArrayList<>()).add(entry);
+        }
+        for (List<Entry> group : byAce.values()) {
+            for (int i = 0; i < group.size(); i += batchSize) {
+                apply(group.subList(i, Math.min(i + batchSize, group.size())), report);
+            }
+        }
+        return report;
+    }
+
+    /**
+     * @return the ids of the documents returned by the query, fetching pages until one brings no new document.
+     */
+    protected Set<String> resolve(String query, BatchReport<Entry> report) {
+        Set<String> uuids = new LinkedHashSet<>();
+        for (int page = 0;; page++) {
+            report.call();
+            RecordSet recordSet = nuxeoClient.automation()
+                                             .param("query", query)
+                                             .param("pageSize", queryPageSize)
+                                             .param("currentPageIndex", page)
+                                             .execute("Repository.ResultSetQuery");
+            // a page past the end is empty, a server ignoring the page index would return the first page again
+            if (!uuids.addAll(recordSet.getUuids())) {
+                return uuids;
+            }
+        }
+    }
+
+    protected void apply(List<Entry> chunk, BatchReport<Entry> report) {
+        ACE ace = chunk.get(0).getAce();
+        DocRefs docRefs = new DocRefs();
+        for (Entry entry : chunk) {
+            docRefs.addDoc(new DocRef(entry.getDocRef()));
+        }
+        Operation operation = nuxeoClient.automation(ADD_PERMISSION_OPERATION)
+                                         .input(docRefs)
+                                         .param("username", ace.getUsername())
+                                         .param("permission", ace.getPermission())
+                                         .param("acl", LOCAL_ACL)
+                                         .param("blockInheritance", ace.isBlockInheritance());
+        if (ace.getCreator() != null) {
+            operation.param("creator", ace.getCreator());
+        }
+        if (ace.getBegin() != null) {
+            operation.param("begin", format(ace.getBegin()));
+        }
+        if (ace.getEnd() != null) {
+            operation.param("end", format(ace.getEnd()));
+        }
+        Documents documents;
+        try {
+            report.call();
+            documents = operation.execute();
+        } catch (NuxeoClientException reason) {
+            for (Entry entry : chunk) {
+                report.failure(entry, reason);
+            }
+            return;
+        }
+        Set<String> applied = new HashSet<>();
+        for (Document document : documents.getDocuments()) {
+            applied.add(document.getId());
+            applied.add(document.getPath());
+        }
+        for (Entry entry : chunk) {
+            if (applied.contains(entry.getDocRef())) {
+                report.success(entry);
+            } else {
+                report.failure(entry, new NuxeoClientException("Permission not applied on " + entry.getDocRef()));
+            }
+        }
+    }
+
+    protected static String key(ACE ace) {
+        return String.join("|", ace.getUsername(), ace.getPermission(), String.valueOf(ace.getCreator()),
+                ace.getBegin() == null ? "" : format(ace.getBegin()), ace.getEnd() == null ? "" : format(ace.getEnd()),
+                String.valueOf(ace.isBlockInheritance()));
+    }
+
+    protected static String format(Calendar calendar) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+        format.setTimeZone(calendar.getTimeZone());
+        return format.format(calendar.getTime());
+    }
+
+    /**
+     * A document reference and the ACE to apply on it.
+     */
+    public static class Entry {
+
+        protected final String docRef;
+
+        protected final ACE ace;
+
+        public Entry(String docRef, ACE ace) {
+            this.docRef = docRef;
+            this.ace = ace;
+        }
+
+        public String getDocRef() {
+            return docRef;
+        }
+
+        public ACE getAce() {
+            return ace;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) obj;
+            return docRef.equals(other.docRef) && ace == other.ace;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(docRef, System.identityHashCode(ace));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.alloc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Bytes allocated per call of the client hot paths, as stored in {@value #RESOURCE}.
+ * <p>
+ * A measure passes when it stays within the baseline plus the tolerance, 20% by default or the
+ * {@value #TOLERANCE_PROPERTY} system property. Run the tests with {@code -D}{@value #UPDATE_PROPERTY}{@code =true}
+ * from the project directory to write the current measures as the new baseline, after an expected change:
+ *
+ * <pre>
+ * mvn test -Pallocation -Dnuxeo.test.allocation.update=true
+ * </pre>
+ *
+ * @since 2.2
+ */
+public class AllocationBaseline {
+
+    private static final Log log = LogFactory.getLog(AllocationBaseline.class);
+
+    public static final String RESOURCE = "allocation-baseline.properties";
+
+    public static final String SOURCE = "src/test/resources/" + RESOURCE;
+
+    public static final String TOLERANCE_PROPERTY = "nuxeo.test.allocation.tolerance";
+
+    public static final String UPDATE_PROPERTY = "nuxeo.test.allocation.update";
+
+    protected final Properties baseline = new Properties();
+
+    protected final double tolerance;
+
+    protected final boolean update;
+
+    public AllocationBaseline() {
+        try (InputStream in = AllocationBaseline.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+            if (in != null) {
+                baseline.load(in);
+            }
+        } catch (IOException reason) {
+            throw new IllegalStateException("Cannot read " + RESOURCE, reason);
+        }
+        tolerance = Double.parseDouble(System.getProperty(TOLERANCE_PROPERTY, "0.2"));
+        update = Boolean.getBoolean(UPDATE_PROPERTY);
+    }
+
+    /**
+     * @return the baseline of the operation, or -1 if none was recorded.
+     */
+    public long getBaseline(String name) {
+        String value = baseline.getProperty(name);
+        return value == null ? -1 : Long.parseLong(value.trim());
+    }
+
+    public long getLimit(String name) {
+        long expected = getBaseline(name);
+        return expected < 0 ? Long.MAX_VALUE : (long) (expected * (1 + tolerance));
+    }
+
+    public boolean isUpdate() {
+        return update;
+    }
+
+    /**
+     * Records the measure as the operation baseline when updating, writing the baseline file back.
+     *
+     * @return whether the measure is within the limit of the operation.
+     */
+    public synchronized boolean check(String name, long measured) {
+        log.info(String.format("%s allocates %d bytes per call, baseline %d", name, measured, getBaseline(name)));
+        if (update) {
+            baseline.setProperty(name, String.valueOf(measured));
+            store(new File(SOURCE));
+            return true;
+        }
+        return measured <= getLimit(name);
+    }
+
+    protected void store(File file) {
+        StringBuilder content = new StringBuilder();
+        content.append("# Bytes allocated per call by the client, see ")
+               .append(AllocationBaseline.class.getName())
+               .append(System.lineSeparator())
+               .append("# Figures depend on the JVM: record them on the build reference JVM with")
+               .append(System.lineSeparator())
+               .append("# mvn test -Pallocation -D")
+               .append(UPDATE_PROPERTY)
+               .append("=true")
+               .append(System.lineSeparator());
+        new TreeMap<>(baseline).forEach((name, value) -> content.append(name)
+                                                               .append('=')
+                                                               .append(value)
+                                                               .append(System.lineSeparator()));
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            out.write(content.toString().getBytes("ISO-8859-1"));
+        } catch (IOException reason) {
+            throw new IllegalStateException("Cannot write " + file, reason);
+        }
+    }
+}
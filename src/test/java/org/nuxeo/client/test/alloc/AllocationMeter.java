@@ -0,0 +1,97 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.alloc;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the bytes allocated by the current thread per call of an operation, from the HotSpot thread allocation
+ * counters.
+ * <p>
+ * Only allocations of the calling thread are counted: with synchronous calls this is the whole client side of a
+ * request, while the embedded server allocates on its own threads. The operation is warmed up first, then measured
+ * over several rounds, the lowest round being kept to filter out one-off allocations such as lazy initializations.
+ *
+ * @since 2.2
+ */
+public class AllocationMeter {
+
+    /**
+     * An operation to measure.
+     */
+    @FunctionalInterface
+    public interface Operation {
+
+        void run() throws Exception;
+    }
+
+    protected final com.sun.management.ThreadMXBean threads;
+
+    protected int warmups = 200;
+
+    protected int iterations = 100;
+
+    protected int rounds = 5;
+
+    public AllocationMeter() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Thread allocation counters are not available on this JVM");
+        }
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    public static boolean isSupported() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported();
+    }
+
+    public AllocationMeter warmups(int warmups) {
+        this.warmups = warmups;
+        return this;
+    }
+
+    public AllocationMeter iterations(int iterations) {
+        this.iterations = iterations;
+        return this;
+    }
+
+    public AllocationMeter rounds(int rounds) {
+        this.rounds = rounds;
+        return this;
+    }
+
+    /**
+     * @return the bytes allocated per call, in the least allocating round.
+     */
+    public long measure(Operation operation) throws Exception {
+        for (int i = 0; i < warmups; i++) {
+            operation.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        long lowest = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < iterations; i++) {
+                operation.run();
+            }
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+            lowest = Math.min(lowest, allocated / iterations);
+        }
+        return lowest;
+    }
+}
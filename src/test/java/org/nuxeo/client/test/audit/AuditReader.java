@@ -0,0 +1,300 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.audit;
+
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import okhttp3.HttpUrl;
+import okhttp3.Response;
+
+import org.nuxeo.client.api.ConstantsV1;
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.Document;
+import org.nuxeo.client.api.objects.audit.Audit;
+import org.nuxeo.client.api.objects.audit.LogEntry;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads the audit of a document page by page instead of downloading the whole history with
+ * {@link Document#fetchAudit()}.
+ * <p>
+ * Event id, category and start date filters are applied by the server through the {@code @audit} adapter, entries are
+ * read in ascending id order and pages are only fetched when the previous one has been consumed, until the server
+ * reports no next page. {@link #getCursor()} returns the last entry read so that a later reader can resume from it with
+ * {@link #since(Cursor)}: the server only returns the entries logged from the cursor event date minus the
+ * {@link #lag(long, TimeUnit)}, the lag covering entries logged late, and the ones already read are skipped.
+ *
+ * @since 2.2
+ */
+public class AuditReader implements Iterable<LogEntry> {
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    public static final long DEFAULT_LAG_SECONDS = 60;
+
+    protected static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+
+    protected static final ObjectMapper MAPPER = new ObjectMapper();
+
+    protected final NuxeoClient nuxeoClient;
+
+    protected final String baseURL;
+
+    protected final String docId;
+
+    protected final List<String> eventIds = new ArrayList<>();
+
+    protected final List<String> categories = new ArrayList<>();
+
+    protected Calendar sinceDate;
+
+    protected Cursor since = Cursor.START;
+
+    protected long lagMillis = TimeUnit.SECONDS.toMillis(DEFAULT_LAG_SECONDS);
+
+    protected int pageSize = DEFAULT_PAGE_SIZE;
+
+    protected volatile Cursor cursor = Cursor.START;
+
+    public AuditReader(NuxeoClient nuxeoClient, String baseURL, Document document) {
+        this(nuxeoClient, baseURL, document.getId());
+    }
+
+    public AuditReader(NuxeoClient nuxeoClient, String baseURL, String docId) {
+        this.nuxeoClient = nuxeoClient;
+        this.baseURL = baseURL;
+        this.docId = docId;
+    }
+
+    public AuditReader eventIds(String... eventIds) {
+        for (String eventId : eventIds) {
+            this.eventIds.add(eventId);
+        }
+        return this;
+    }
+
+    public AuditReader categories(String... categories) {
+        for (String category : categories) {
+            this.categories.add(category);
+        }
+        return this;
+    }
+
+    /**
+     * Only reads entries whose event date is after the given one, filtered by the server.
+     */
+    public AuditReader since(Calendar sinceDate) {
+        this.sinceDate = sinceDate;
+        return this;
+    }
+
+    /**
+     * Only returns entries logged after the given cursor.
+     */
+    public AuditReader since(Cursor cursor) {
+        this.since = cursor;
+        this.cursor = cursor;
+        return this;
+    }
+
+    /**
+     * @param lag how long before the cursor event date entries may still be logged, 1 minute by default.
+     */
+    public AuditReader lag(long lag, TimeUnit unit) {
+        this.lagMillis = unit.toMillis(lag);
+        return this;
+    }
+
+    public AuditReader pageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * @return the last entry returned, or the initial cursor if nothing has been read.
+     */
+    public Cursor getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Fetches a single page of entries.
+     */
+    public List<LogEntry> fetchPage(int pageIndex) {
+        return fetch(pageIndex).entries;
+    }
+
+    protected Page fetch(int pageIndex) {
+        HttpUrl.Builder url = HttpUrl.parse(baseURL + ConstantsV1.API_PATH + "id/" + docId + "/@audit")
+                                     .newBuilder()
+                                     .addQueryParameter("pageSize", String.valueOf(pageSize))
+                                     .addQueryParameter("currentPageIndex", String.valueOf(pageIndex))
+                                     .addQueryParameter("sortBy", "id")
+                                     .addQueryParameter("sortOrder", "asc");
+        for (String eventId : eventIds) {
+            url.addQueryParameter("eventId", eventId);
+        }
+        for (String category : categories) {
+            url.addQueryParameter("category", category);
+        }
+        OffsetDateTime startDate = getStartDate();
+        if (startDate != null) {
+            url.addQueryParameter("startEventDate", DATE_FORMAT.format(startDate));
+        }
+        Response response = nuxeoClient.get(url.build().toString());
+        try {
+            String json = response.body().string();
+            if (!response.isSuccessful()) {
+                throw nuxeoClient.getConverterFactory().readJSON(json, NuxeoClientException.class);
+            }
+            List<LogEntry> entries = nuxeoClient.getConverterFactory().readJSON(json, Audit.class).getLogEntries();
+            JsonNode nextPage = MAPPER.readTree(json).get("isNextPageAvailable");
+            boolean nextPageAvailable = nextPage == null ? entries.size() == pageSize : nextPage.asBoolean();
+            return new Page(entries, nextPageAvailable && !entries.isEmpty());
+        } catch (IOException reason) {
+            throw new NuxeoClientException(reason);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * @return the latest of the start date and of the cursor event date minus the lag, or null for no lower bound.
+     */
+    protected OffsetDateTime getStartDate() {
+        OffsetDateTime startDate = null;
+        if (sinceDate != null) {
+            startDate = OffsetDateTime.ofInstant(sinceDate.toInstant(), sinceDate.getTimeZone().toZoneId());
+        }
+        if (since.eventDate != null) {
+            OffsetDateTime cursorDate = OffsetDateTime.parse(since.eventDate).minus(lagMillis, ChronoUnit.MILLIS);
+            startDate = startDate == null || cursorDate.isAfter(startDate) ? cursorDate : startDate;
+        }
+        return startDate;
+    }
+
+    @Override
+    public Iterator<LogEntry> iterator() {
+        return new PageIterator();
+    }
+
+    public Stream<LogEntry> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED), false);
+    }
+
+    protected class PageIterator implements Iterator<LogEntry> {
+
+        protected Iterator<LogEntry> page;
+
+        protected int pageIndex;
+
+        protected boolean lastPage;
+
+        protected LogEntry next;
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (page == null || !page.hasNext()) {
+                    if (lastPage) {
+                        return false;
+                    }
+                    Page fetched = fetch(pageIndex++);
+                    lastPage = !fetched.nextPageAvailable;
+                    page = fetched.entries.iterator();
+                    continue;
+                }
+                LogEntry entry = page.next();
+                if (entry.getId() > since.id) {
+                    next = entry;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public LogEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            LogEntry entry = next;
+            next = null;
+            if (entry.getId() > cursor.id) {
+                cursor = new Cursor(entry.getId(), entry.getEventDate());
+            }
+            return entry;
+        }
+    }
+
+    protected static class Page {
+
+        protected final List<LogEntry> entries;
+
+        protected final boolean nextPageAvailable;
+
+        protected Page(List<LogEntry> entries, boolean nextPageAvailable) {
+            this.entries = entries;
+            this.nextPageAvailable = nextPageAvailable;
+        }
+    }
+
+    /**
+     * Position of a reader in the audit: the id and event date of the last entry read.
+     */
+    public static class Cursor {
+
+        public static final Cursor START = new Cursor(-1, null);
+
+        protected final long id;
+
+        protected final String eventDate;
+
+        public Cursor(long id, String eventDate) {
+            this.id = id;
+            this.eventDate = eventDate;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return the event date of the entry, in ISO 8601 format.
+         */
+        public String getEventDate() {
+            return eventDate;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.auth;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.user.CurrentUser;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+import org.nuxeo.client.internals.spi.auth.TokenAuthInterceptor;
+
+/**
+ * Switches a client from per-request Basic authentication to token authentication.
+ * <p>
+ * This class is the authentication interceptor of the client, so every request goes through it: the token is acquired
+ * on the first request, reused by the following ones and acquired again before a request once older than
+ * {@link #maxAge(long, TimeUnit)}. A request rejected with a 401, for instance because the token was revoked, is sent
+ * again once with a new token. The current user is fetched once per token.
+ *
+ * @since 2.2
+ */
+public class TokenAuthentication implements Interceptor {
+
+    public static final String TOKEN_PATH = "/authentication/token";
+
+    protected final NuxeoClient nuxeoClient;
+
+    protected final Supplier<String> tokenProvider;
+
+    protected long maxAgeNanos = Long.MAX_VALUE;
+
+    protected String token;
+
+    protected TokenAuthInterceptor interceptor;
+
+    protected long acquiredAt;
+
+    protected volatile CurrentUser currentUser;
+
+    /**
+     * @param nuxeoClient the client to authenticate with the token, this instance becomes its authentication method.
+     * @param tokenProvider acquires a new token, see {@link #tokenEndpoint(String, String, String, String, String)}.
+     */
+    public TokenAuthentication(NuxeoClient nuxeoClient, Supplier<String> tokenProvider) {
+        this.nuxeoClient = nuxeoClient;
+        this.tokenProvider = tokenProvider;
+        nuxeoClient.setAuthenticationMethod(this);
+    }
+
+    /**
+     * Acquires tokens from the token authentication endpoint with Basic authentication, through a dedicated client so
+     * that the credentials are only sent when a token is needed.
+     */
+    public static Supplier<String> tokenEndpoint(String baseURL, String username, String password,
+            String applicationName, String deviceId) {
+        NuxeoClient basicClient = new NuxeoClient(baseURL, username, password);
+        String url = HttpUrl.parse(baseURL + TOKEN_PATH)
+                            .newBuilder()
+                            .addQueryParameter("applicationName", applicationName)
+                            .addQueryParameter("deviceId", deviceId)
+                            .addQueryParameter("permission", "rw")
+                            .build()
+                            .toString();
+        return () -> {
+            Response response = basicClient.get(url);
+            try {
+                String body = response.body().string();
+                if (!response.isSuccessful()) {
+                    throw new NuxeoClientException("Cannot acquire token, status " + response.code() + ": " + body);
+                }
+                return body.trim();
+            } catch (IOException reason) {
+                throw new NuxeoClientException(reason);
+            } finally {
+                response.close();
+            }
+        };
+    }
+
+    public TokenAuthentication maxAge(long maxAge, TimeUnit unit) {
+        this.maxAgeNanos = unit.toNanos(maxAge);
+        return this;
+    }
+
+    /**
+     * @return the current token, acquiring a new one if there is none yet or if it is too old.
+     */
+    public synchronized String getToken() {
+        getInterceptor();
+        return token;
+    }
+
+    protected synchronized TokenAuthInterceptor getInterceptor() {
+        if (token == null || System.nanoTime() - acquiredAt >= maxAgeNanos) {
+            refresh();
+        }
+        return interceptor;
+    }
+
+    public synchronized String refresh() {
+        String newToken = tokenProvider.get();
+        if (newToken == null || newToken.isEmpty()) {
+            throw new NuxeoClientException("No token acquired");
+        }
+        token = newToken;
+        interceptor = new TokenAuthInterceptor(newToken);
+        acquiredAt = System.nanoTime();
+        currentUser = null;
+        return newToken;
+    }
+
+    /**
+     * Acquires a new token unless another request already replaced the rejected one.
+     */
+    protected synchronized TokenAuthInterceptor refresh(TokenAuthInterceptor rejected) {
+        if (interceptor == rejected) {
+            refresh();
+        }
+        return interceptor;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        TokenAuthInterceptor current = getInterceptor();
+        Response response = current.intercept(chain);
+        if (response.code() != 401) {
+            return response;
+        }
+        response.close();
+        return refresh(current).intercept(chain);
+    }
+
+    /**
+     * @return the authenticated client.
+     */
+    public NuxeoClient getClient() {
+        return nuxeoClient;
+    }
+
+    public CurrentUser fetchCurrentUser() {
+        getToken();
+        CurrentUser user = currentUser;
+        if (user == null) {
+            user = nuxeoClient.fetchCurrentUser();
+            currentUser = user;
+        }
+        return user;
+    }
+}
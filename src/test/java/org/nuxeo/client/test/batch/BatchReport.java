@@ -0,0 +1,74 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+
+/**
+ * Per-item outcome of a batched call: every submitted item ends up either in the successes or in the failures with
+ * the reason returned by the server.
+ *
+ * @since 2.2
+ */
+public class BatchReport<T> {
+
+    protected final List<T> successes = new ArrayList<>();
+
+    protected final Map<T, NuxeoClientException> failures = new LinkedHashMap<>();
+
+    protected int calls;
+
+    public synchronized void success(T item) {
+        successes.add(item);
+    }
+
+    public synchronized void failure(T item, NuxeoClientException reason) {
+        failures.put(item, reason);
+    }
+
+    public synchronized void call() {
+        calls++;
+    }
+
+    public synchronized List<T> getSuccesses() {
+        return Collections.unmodifiableList(new ArrayList<>(successes));
+    }
+
+    public synchronized Map<T, NuxeoClientException> getFailures() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+    }
+
+    /**
+     * @return the number of round trips done to process the batch.
+     */
+    public synchronized int getCalls() {
+        return calls;
+    }
+
+    public synchronized int size() {
+        return successes.size() + failures.size();
+    }
+
+    public synchronized boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.batch;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+
+/**
+ * Runs a client call for each item of a batch with a bounded number of concurrent requests, recording the outcome of
+ * every item in a {@link BatchReport}.
+ *
+ * @since 2.2
+ */
+public class BatchRunner {
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    protected final int parallelism;
+
+    public BatchRunner() {
+        this(DEFAULT_PARALLELISM);
+    }
+
+    public BatchRunner(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public <T> BatchReport<T> run(Collection<T> items, Consumer<T> call) {
+        BatchReport<T> report = new BatchReport<>();
+        run(items, call, report);
+        return report;
+    }
+
+    public <T> void run(Collection<T> items, Consumer<T> call, BatchReport<T> report) {
+        if (parallelism == 1 || items.size() <= 1) {
+            for (T item : items) {
+                execute(item, call, report);
+            }
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, items.size()));
+        try {
+            for (T item : items) {
+                executor.execute(() -> execute(item, call, report));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // keep waiting, every call is bounded by the client timeout
+            }
+        } catch (InterruptedException reason) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new NuxeoClientException(reason);
+        }
+    }
+
+    protected <T> void execute(T item, Consumer<T> call, BatchReport<T> report) {
+        report.call();
+        try {
+            call.accept(item);
+            report.success(item);
+        } catch (NuxeoClientException reason) {
+            report.failure(item, reason);
+        } catch (RuntimeException reason) {
+            // every item must end up in the report
+            report.failure(item, new NuxeoClientException(reason));
+        }
+    }
+}
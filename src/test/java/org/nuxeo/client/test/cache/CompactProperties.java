@@ -0,0 +1,187 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.cache;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Property map holding only its values in an array, the keys being looked up in a shared
+ * {@link PropertyKeys.Shape}. Adding or removing a key moves the map to another shape of the same dictionary.
+ *
+ * @since 2.2
+ */
+public class CompactProperties extends AbstractMap<String, Object> {
+
+    protected PropertyKeys.Shape shape;
+
+    protected Object[] values;
+
+    protected CompactProperties(PropertyKeys.Shape shape, Object[] values) {
+        this.shape = shape;
+        this.values = values;
+    }
+
+    public PropertyKeys.Shape getShape() {
+        return shape;
+    }
+
+    @Override
+    public int size() {
+        return shape.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return shape.indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = shape.indexOf(key);
+        return index < 0 ? null : values[index];
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int index = shape.indexOf(key);
+        if (index >= 0) {
+            Object previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+        shape = shape.with(key);
+        values = Arrays.copyOf(values, values.length + 1);
+        values[values.length - 1] = value;
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int index = shape.indexOf(key);
+        return index < 0 ? null : removeAt(index);
+    }
+
+    protected Object removeAt(int index) {
+        Object previous = values[index];
+        Object[] reduced = new Object[values.length - 1];
+        System.arraycopy(values, 0, reduced, 0, index);
+        System.arraycopy(values, index + 1, reduced, index, values.length - index - 1);
+        shape = shape.without(index);
+        values = reduced;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        shape = shape.dictionary.getEmptyShape();
+        values = new Object[0];
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+
+            @Override
+            public int size() {
+                return CompactProperties.this.size();
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new Iterator<Map.Entry<String, Object>>() {
+
+                    protected int next;
+
+                    protected boolean removable;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < values.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, Object> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        removable = true;
+                        return new Entry(next++);
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (!removable) {
+                            throw new IllegalStateException();
+                        }
+                        removable = false;
+                        removeAt(--next);
+                    }
+                };
+            }
+        };
+    }
+
+    protected class Entry implements Map.Entry<String, Object> {
+
+        protected final String key;
+
+        protected final int index;
+
+        protected Entry(int index) {
+            this.key = shape.getKey(index);
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return values[index];
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ (getValue() == null ? 0 : getValue().hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+            Object value = getValue();
+            return key.equals(other.getKey()) && (value == null ? other.getValue() == null
+                    : value.equals(other.getValue()));
+        }
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.cache;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Persistent key/value cache made of append-only data segments and an index file.
+ * <p>
+ * Each value is stored with a version, typically the document change token, and is only returned for that version.
+ * Values are appended to the current segment; the index, kept in memory in least recently used order, is written to
+ * {@value #INDEX_FILE} by {@link #flush()} and read back when the cache is opened again. Records appended after the
+ * last flush are recovered by scanning the end of the segments.
+ * <p>
+ * When the live data exceeds the size cap, least recently used entries are dropped. Once dropped and overwritten
+ * records take more room than live ones, segments are compacted: live records are copied to new segments and the old
+ * ones are deleted.
+ *
+ * @since 2.2
+ */
+public class DiskCache implements AutoCloseable {
+
+    public static final String INDEX_FILE = "index.dat";
+
+    public static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    protected static final int RECORD_MAGIC = 0x4E584352;
+
+    protected static final int INDEX_MAGIC = 0x4E584349;
+
+    protected static final Pattern SEGMENT_FILE = Pattern.compile("segment-(\\d{1,9})\\.dat");
+
+    protected final Path directory;
+
+    protected final long maxBytes;
+
+    protected final long segmentSize;
+
+    protected final LinkedHashMap<String, Location> index = new LinkedHashMap<>(16, 0.75f, true);
+
+    protected final TreeMap<Integer, FileChannel> segments = new TreeMap<>();
+
+    protected int activeSegment;
+
+    protected long liveBytes;
+
+    protected long deadBytes;
+
+    public DiskCache(File directory, long maxBytes) throws IOException {
+        this(directory, maxBytes, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public DiskCache(File directory, long maxBytes, long segmentSize) throws IOException {
+        this.directory = directory.toPath();
+        this.maxBytes = maxBytes;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(this.directory);
+        open();
+    }
+
+    protected void open() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                // other files, such as a segment-x.dat left by a user, are not segments of this cache
+                Matcher segment = SEGMENT_FILE.matcher(file.getFileName().toString());
+                if (segment.matches()) {
+                    int id = Integer.parseInt(segment.group(1));
+                    segments.put(id, openSegment(id));
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(0, openSegment(0));
+        }
+        activeSegment = segments.lastKey();
+        Map<Integer, Long> scanFrom = loadIndex();
+        for (Map.Entry<Integer, FileChannel> segment : segments.entrySet()) {
+            Long from = scanFrom.get(segment.getKey());
+            scan(segment.getKey(), segment.getValue(), from == null ? 0 : from);
+        }
+        // records evicted after the last flush are found again by the scan
+        evict();
+    }
+
+    protected FileChannel openSegment(int id) throws IOException {
+        return FileChannel.open(directory.resolve(String.format("segment-%08d.dat", id)), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * @return for each segment known by the index, the offset from which records are not indexed yet.
+     */
+    protected Map<Integer, Long> loadIndex() throws IOException {
+        Map<Integer, Long> indexed = new TreeMap<>();
+        Path file = directory.resolve(INDEX_FILE);
+        if (!Files.exists(file)) {
+            return indexed;
+        }
+        // read, not mapped: a mapping is only released by the garbage collector and would prevent flush() from
+        // replacing the file on Windows
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return indexed;
+            }
+            ByteBuffer buffer = read(channel, 0, (int) channel.size());
+            if (buffer.getInt() != INDEX_MAGIC) {
+                return indexed;
+            }
+            int segmentCount = buffer.getInt();
+            for (int i = 0; i < segmentCount; i++) {
+                indexed.put(buffer.getInt(), buffer.getLong());
+            }
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                String key = readString(buffer);
+                String version = readString(buffer);
+                Location location = new Location(buffer.getInt(), buffer.getLong(), buffer.getInt(), buffer.getInt(),
+                        version);
+                if (segments.containsKey(location.segment)) {
+                    index(key, location);
+                }
+            }
+            deadBytes = buffer.getLong();
+        } catch (RuntimeException | EOFException reason) {
+            // truncated or corrupted index, rebuild it from the segments
+            index.clear();
+            indexed.clear();
+            liveBytes = 0;
+            deadBytes = 0;
+        }
+        return indexed;
+    }
+
+    /**
+     * Indexes the records from the given offset. Lengths are read from the file, so each one is checked against the
+     * segment size before being used: a record running past the end of the segment, partially written or corrupted,
+     * is truncated with everything after it.
+     */
+    protected void scan(int segment, FileChannel channel, long from) throws IOException {
+        long position = from;
+        long size = channel.size();
+        while (position + 8 <= size) {
+            ByteBuffer header = read(channel, position, 8);
+            if (header.getInt() != RECORD_MAGIC) {
+                break;
+            }
+            int keyLength = header.getInt();
+            if (keyLength < 0 || position + 12 + keyLength > size) {
+                channel.truncate(position);
+                break;
+            }
+            ByteBuffer head = read(channel, position + 8, keyLength + 4);
+            byte[] key = new byte[keyLength];
+            head.get(key);
+            int versionLength = head.getInt();
+            if (versionLength < 0 || position + 16 + keyLength + versionLength > size) {
+                channel.truncate(position);
+                break;
+            }
+            ByteBuffer version = read(channel, position + 12 + keyLength, versionLength + 4);
+            byte[] versionBytes = new byte[versionLength];
+            version.get(versionBytes);
+            int dataLength = version.getInt();
+            long dataOffset = position + 16 + keyLength + versionLength;
+            if (dataLength < 0 || dataOffset + dataLength > size) {
+                channel.truncate(position);
+                break;
+            }
+            int recordLength = (int) (dataOffset + dataLength - position);
+            index(new String(key, StandardCharsets.UTF_8),
+                    new Location(segment, dataOffset, dataLength, recordLength,
+                            new String(versionBytes, StandardCharsets.UTF_8)));
+            position = dataOffset + dataLength;
+        }
+    }
+
+    protected void index(String key, Location location) {
+        Location previous = index.put(key, location);
+        liveBytes += location.recordLength;
+        if (previous != null) {
+            liveBytes -= previous.recordLength;
+            deadBytes += previous.recordLength;
+        }
+    }
+
+    /**
+     * @return the value stored for this key and version, or null.
+     */
+    public synchronized byte[] get(String key, String version) throws IOException {
+        Location location = index.get(key);
+        if (location == null || (version != null && !version.equals(location.version))) {
+            return null;
+        }
+        ByteBuffer data = ByteBuffer.allocate(location.dataLength);
+        FileChannel channel = segments.get(location.segment);
+        while (data.hasRemaining()) {
+            if (channel.read(data, location.dataOffset + data.position()) < 0) {
+                throw new IOException("Truncated record for " + key);
+            }
+        }
+        return data.array();
+    }
+
+    /**
+     * @return the version stored for this key, or null.
+     */
+    public synchronized String getVersion(String key) {
+        Location location = index.get(key);
+        return location == null ? null : location.version;
+    }
+
+    public synchronized void put(String key, String version, byte[] data) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] versionBytes = (version == null ? "" : version).getBytes(StandardCharsets.UTF_8);
+        int recordLength = 16 + keyBytes.length + versionBytes.length + data.length;
+        if (recordLength > maxBytes) {
+            remove(key);
+            return;
+        }
+        FileChannel channel = segments.get(activeSegment);
+        if (channel.size() > 0 && channel.size() + recordLength > segmentSize) {
+            activeSegment++;
+            channel = openSegment(activeSegment);
+            segments.put(activeSegment, channel);
+        }
+        long position = channel.size();
+        ByteBuffer record = ByteBuffer.allocate(recordLength);
+        record.putInt(RECORD_MAGIC).putInt(keyBytes.length).put(keyBytes);
+        record.putInt(versionBytes.length).put(versionBytes);
+        record.putInt(data.length).put(data);
+        record.flip();
+        while (record.hasRemaining()) {
+            channel.write(record, position + record.position());
+        }
+        index(key, new Location(activeSegment, position + recordLength - data.length, data.length, recordLength,
+                version == null ? "" : version));
+        evict();
+    }
+
+    public synchronized void remove(String key) {
+        Location location = index.remove(key);
+        if (location != null) {
+            liveBytes -= location.recordLength;
+            deadBytes += location.recordLength;
+        }
+    }
+
+    protected void evict() throws IOException {
+        Iterator<Location> eldest = index.values().iterator();
+        while (liveBytes > maxBytes && eldest.hasNext()) {
+            Location location = eldest.next();
+            eldest.remove();
+            liveBytes -= location.recordLength;
+            deadBytes += location.recordLength;
+        }
+        if (deadBytes > liveBytes && deadBytes > segmentSize / 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Copies the live records to new segments, in least recently used order, and deletes the old segments.
+     */
+    public synchronized void compact() throws IOException {
+        List<Map.Entry<String, Location>> live = new ArrayList<>(index.entrySet());
+        TreeMap<Integer, FileChannel> old = new TreeMap<>(segments);
+        segments.clear();
+        activeSegment = old.lastKey() + 1;
+        segments.put(activeSegment, openSegment(activeSegment));
+        index.clear();
+        liveBytes = 0;
+        deadBytes = 0;
+        for (Map.Entry<String, Location> entry : live) {
+            Location location = entry.getValue();
+            ByteBuffer data = ByteBuffer.allocate(location.dataLength);
+            FileChannel channel = old.get(location.segment);
+            while (data.hasRemaining()) {
+                channel.read(data, location.dataOffset + data.position());
+            }
+            put(entry.getKey(), location.version, data.array());
+        }
+        for (Map.Entry<Integer, FileChannel> segment : old.entrySet()) {
+            segment.getValue().close();
+            Files.deleteIfExists(directory.resolve(String.format("segment-%08d.dat", segment.getKey())));
+        }
+        flush();
+    }
+
+    /**
+     * Forces the segments to disk and writes the index.
+     */
+    public synchronized void flush() throws IOException {
+        int size = 4 + 4 + segments.size() * 12 + 4 + 8;
+        List<byte[]> keys = new ArrayList<>();
+        List<byte[]> versions = new ArrayList<>();
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] version = entry.getValue().version.getBytes(StandardCharsets.UTF_8);
+            keys.add(key);
+            versions.add(version);
+            size += 4 + key.length + 4 + version.length + 4 + 8 + 4 + 4;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(INDEX_MAGIC).putInt(segments.size());
+        for (Map.Entry<Integer, FileChannel> segment : segments.entrySet()) {
+            segment.getValue().force(false);
+            buffer.putInt(segment.getKey()).putLong(segment.getValue().size());
+        }
+        buffer.putInt(index.size());
+        int i = 0;
+        for (Location location : index.values()) {
+            buffer.putInt(keys.get(i).length).put(keys.get(i));
+            buffer.putInt(versions.get(i).length).put(versions.get(i));
+            buffer.putInt(location.segment).putLong(location.dataOffset);
+            buffer.putInt(location.dataLength).putInt(location.recordLength);
+            i++;
+        }
+        buffer.putLong(deadBytes);
+        buffer.flip();
+        Path tmp = directory.resolve(INDEX_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, directory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        for (FileChannel channel : segments.values()) {
+            channel.close();
+        }
+        segments.clear();
+    }
+
+    /**
+     * @return the given bytes of the file, ready to be read.
+     */
+    protected static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    protected static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    protected static class Location {
+
+        protected final int segment;
+
+        protected final long dataOffset;
+
+        protected final int dataLength;
+
+        protected final int recordLength;
+
+        protected final String version;
+
+        protected Location(int segment, long dataOffset, int dataLength, int recordLength, String version) {
+            this.segment = segment;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+            this.recordLength = recordLength;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.cache;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.nuxeo.client.api.objects.Document;
+
+/**
+ * Compact binary encoding of {@link Document}, for caches and for sharing documents between processes.
+ * <p>
+ * A stream starts with a format version, then holds documents one after the other. Property keys, including the keys
+ * of complex properties, are written once per stream and then referenced by index, so that documents of the same
+ * schemas only pay for their values. Values are tagged: null, string, boolean, list, map, date, calendar with its time
+ * zone and one tag per numeric type, so that numbers are decoded with the type and precision they were written with.
+ * Other values, such as blobs, are rejected rather than written as their string form.
+ * <p>
+ * Kept fields are uid, type, title, path, state, change token, repository, version label, checked out flag, lock,
+ * facets, properties and context parameters.
+ *
+ * @since 2.2
+ */
+public class DocumentCodec {
+
+    public static final int FORMAT_VERSION = 2;
+
+    protected static final int NULL = 0;
+
+    protected static final int STRING = 1;
+
+    protected static final int TRUE = 2;
+
+    protected static final int FALSE = 3;
+
+    protected static final int INT = 4;
+
+    protected static final int DOUBLE = 5;
+
+    protected static final int LIST = 6;
+
+    protected static final int MAP = 7;
+
+    protected static final int LONG = 8;
+
+    protected static final int SHORT = 9;
+
+    protected static final int BYTE = 10;
+
+    protected static final int FLOAT = 11;
+
+    protected static final int BIG_INTEGER = 12;
+
+    protected static final int BIG_DECIMAL = 13;
+
+    protected static final int DATE = 14;
+
+    protected static final int CALENDAR = 15;
+
+    private DocumentCodec() {
+    }
+
+    public static byte[] encode(Document document) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (Writer writer = new Writer(bytes)) {
+            writer.write(document);
+        } catch (IOException reason) {
+            // not thrown by in memory streams
+            throw new IllegalStateException(reason);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static Document decode(byte[] bytes) {
+        try (Reader reader = new Reader(new ByteArrayInputStream(bytes))) {
+            return reader.read();
+        } catch (IOException reason) {
+            throw new IllegalArgumentException("Invalid encoded document", reason);
+        }
+    }
+
+    /**
+     * Writes documents to a stream, sharing the property keys between them.
+     */
+    public static class Writer implements AutoCloseable {
+
+        protected final DataOutputStream out;
+
+        protected final Map<String, Integer> keys = new HashMap<>();
+
+        public Writer(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(out);
+            writeVarInt(FORMAT_VERSION);
+        }
+
+        public void write(Document document) throws IOException {
+            writeString(document.getUid());
+            writeString(document.getType());
+            writeString(document.getTitle());
+            writeString(document.getPath());
+            writeString(document.getState());
+            writeString(document.getChangeToken());
+            writeString(document.getRepositoryName());
+            writeString(document.getVersionLabel());
+            writeString(document.getIsCheckedOut());
+            writeString(document.getLockOwner());
+            writeString(document.getLockCreated());
+            writeValue(document.getFacets());
+            writeValue(document.getProperties());
+            writeValue(document.getContextParameters());
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        protected void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL);
+            } else if (value instanceof String) {
+                out.writeByte(STRING);
+                writeString((String) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Integer) {
+                out.writeByte(INT);
+                writeZigZag((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG);
+                writeZigZag((Long) value);
+            } else if (value instanceof Short) {
+                out.writeByte(SHORT);
+                writeZigZag((Short) value);
+            } else if (value instanceof Byte) {
+                out.writeByte(BYTE);
+                out.writeByte((Byte) value);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof BigInteger) {
+                out.writeByte(BIG_INTEGER);
+                writeBytes(((BigInteger) value).toByteArray());
+            } else if (value instanceof BigDecimal) {
+                BigDecimal decimal = (BigDecimal) value;
+                out.writeByte(BIG_DECIMAL);
+                writeZigZag(decimal.scale());
+                writeBytes(decimal.unscaledValue().toByteArray());
+            } else if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                out.writeByte(LIST);
+                writeVarInt(list.size());
+                for (Object item : list) {
+                    writeValue(item);
+                }
+            } else if (value instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                out.writeByte(MAP);
+                writeVarInt(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeKey(String.valueOf(entry.getKey()));
+                    writeValue(entry.getValue());
+                }
+            } else if (value instanceof Date) {
+                out.writeByte(DATE);
+                writeZigZag(((Date) value).getTime());
+            } else if (value instanceof Calendar) {
+                Calendar calendar = (Calendar) value;
+                out.writeByte(CALENDAR);
+                writeZigZag(calendar.getTimeInMillis());
+                writeString(calendar.getTimeZone().getID());
+            } else {
+                throw new IllegalArgumentException("Unsupported value type: " + value.getClass().getName());
+            }
+        }
+
+        protected void writeKey(String key) throws IOException {
+            Integer index = keys.get(key);
+            if (index != null) {
+                writeVarInt(index + 1);
+            } else {
+                keys.put(key, keys.size());
+                writeVarInt(0);
+                writeString(key);
+            }
+        }
+
+        protected void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length + 1);
+            out.write(bytes);
+        }
+
+        protected void writeBytes(byte[] bytes) throws IOException {
+            writeVarInt(bytes.length);
+            out.write(bytes);
+        }
+
+        protected void writeZigZag(long value) throws IOException {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        protected void writeVarInt(int value) throws IOException {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        protected void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads documents written by a {@link Writer}; decoded keys are shared between the documents of the stream.
+     */
+    public static class Reader implements AutoCloseable {
+
+        protected final DataInputStream in;
+
+        protected final List<String> keys = new ArrayList<>();
+
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(in.markSupported() ? in : new BufferedInputStream(in));
+            int version = readVarInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported document format version: " + version);
+            }
+        }
+
+        /**
+         * @return the next document, or null at the end of the stream.
+         */
+        @SuppressWarnings("unchecked")
+        public Document read() throws IOException {
+            in.mark(1);
+            if (in.read() < 0) {
+                return null;
+            }
+            in.reset();
+            String uid = readString();
+            String type = readString();
+            String title = readString();
+            String path = readString();
+            String state = readString();
+            String changeToken = readString();
+            String repository = readString();
+            String versionLabel = readString();
+            String isCheckedOut = readString();
+            String lockOwner = readString();
+            String lockCreated = readString();
+            List<String> facets = (List<String>) readValue();
+            Map<String, Object> properties = (Map<String, Object>) readValue();
+            Map<String, Object> contextParameters = (Map<String, Object>) readValue();
+            Document document = new Document(uid, type, facets, changeToken, path, state, lockOwner, lockCreated,
+                    repository, versionLabel, isCheckedOut, properties, contextParameters);
+            document.setTitle(title);
+            return document;
+        }
+
+        protected Object readValue() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString();
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case INT:
+                return (int) readZigZag();
+            case LONG:
+                return readZigZag();
+            case SHORT:
+                return (short) readZigZag();
+            case BYTE:
+                return in.readByte();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case BIG_INTEGER:
+                return new BigInteger(readBytes());
+            case BIG_DECIMAL:
+                int scale = (int) readZigZag();
+                return new BigDecimal(new BigInteger(readBytes()), scale);
+            case DATE:
+                return new Date(readZigZag());
+            case CALENDAR:
+                long time = readZigZag();
+                Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone(readString()));
+                calendar.setTimeInMillis(time);
+                return calendar;
+            case LIST:
+                int size = readVarInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue());
+                }
+                return list;
+            case MAP:
+                int entries = readVarInt();
+                Map<String, Object> map = new LinkedHashMap<>(entries * 4 / 3 + 1);
+                for (int i = 0; i < entries; i++) {
+                    map.put(readKey(), readValue());
+                }
+                return map;
+            default:
+                throw new IOException("Unknown value tag: " + tag);
+            }
+        }
+
+        protected String readKey() throws IOException {
+            int index = readVarInt();
+            if (index > 0) {
+                return keys.get(index - 1);
+            }
+            String key = readString();
+            keys.add(key);
+            return key;
+        }
+
+        protected String readString() throws IOException {
+            int length = readVarInt();
+            if (length == 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length - 1];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        protected byte[] readBytes() throws IOException {
+            byte[] bytes = new byte[readVarInt()];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        protected long readZigZag() throws IOException {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        protected int readVarInt() throws IOException {
+            return (int) readVarLong();
+        }
+
+        protected long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException();
+                }
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed variable length number");
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import okhttp3.Response;
+
+import org.nuxeo.client.api.ConstantsV1;
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.Document;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+
+/**
+ * Second level cache keeping document JSON and main blob content on disk, so that they survive client restarts.
+ * <p>
+ * Entries are versioned by the document change token: {@link #fetchDocument(String, String)} and
+ * {@link #fetchBlob(String, String)} only hit the server when the cached version differs from the expected one, while
+ * {@link #getDocument(String)} serves whatever version was cached last, without any network call.
+ *
+ * @since 2.2
+ */
+public class DocumentDiskCache {
+
+    protected static final String DOCUMENT_PREFIX = "doc:";
+
+    protected static final String BLOB_PREFIX = "blob:";
+
+    protected final NuxeoClient nuxeoClient;
+
+    protected final String baseURL;
+
+    protected final DiskCache cache;
+
+    public DocumentDiskCache(NuxeoClient nuxeoClient, String baseURL, DiskCache cache) {
+        this.nuxeoClient = nuxeoClient;
+        this.baseURL = baseURL;
+        this.cache = cache;
+    }
+
+    /**
+     * @return the last cached version of the document, fetching it only if it was never cached.
+     */
+    public Document getDocument(String docId) {
+        byte[] json = read(DOCUMENT_PREFIX + docId, null);
+        if (json == null) {
+            return fetchDocumentById(docId);
+        }
+        return nuxeoClient.getConverterFactory().readJSON(new String(json, StandardCharsets.UTF_8), Document.class);
+    }
+
+    /**
+     * @return the cached document if its change token matches, otherwise the document fetched from the server.
+     */
+    public Document fetchDocument(String docId, String changeToken) {
+        byte[] json = read(DOCUMENT_PREFIX + docId, changeToken);
+        if (json == null) {
+            return fetchDocumentById(docId);
+        }
+        return nuxeoClient.getConverterFactory().readJSON(new String(json, StandardCharsets.UTF_8), Document.class);
+    }
+
+    /**
+     * Fetches the document from the server and caches it under its current change token.
+     */
+    public Document fetchDocumentById(String docId) {
+        String json = new String(fetch("id/" + docId), StandardCharsets.UTF_8);
+        Document document = nuxeoClient.getConverterFactory().readJSON(json, Document.class);
+        write(DOCUMENT_PREFIX + docId, document.getChangeToken(), json.getBytes(StandardCharsets.UTF_8));
+        return document;
+    }
+
+    public InputStream fetchBlob(Document document) {
+        return fetchBlob(document.getId(), document.getChangeToken());
+    }
+
+    /**
+     * @return the main blob content of the document, from disk if cached for this change token.
+     */
+    public InputStream fetchBlob(String docId, String changeToken) {
+        byte[] content = read(BLOB_PREFIX + docId, changeToken);
+        if (content == null) {
+            content = fetchBlob(docId);
+        }
+        return new ByteArrayInputStream(content);
+    }
+
+    /**
+     * Downloads the blob and caches it under the change token the server returned with the document, which may be
+     * newer than the one the caller knows. The document is fetched before and after the download: the blob is only
+     * cached when both change tokens match, so that a concurrent update cannot label it with the wrong version.
+     */
+    protected byte[] fetchBlob(String docId) {
+        String changeToken = fetchDocumentById(docId).getChangeToken();
+        byte[] content = changeToken == null ? null : read(BLOB_PREFIX + docId, changeToken);
+        if (content != null) {
+            return content;
+        }
+        content = fetch("id/" + docId + "/@blob/blobholder:0");
+        if (changeToken != null && changeToken.equals(fetchDocumentById(docId).getChangeToken())) {
+            write(BLOB_PREFIX + docId, changeToken, content);
+        }
+        return content;
+    }
+
+    public void invalidate(String docId) {
+        cache.remove(DOCUMENT_PREFIX + docId);
+        cache.remove(BLOB_PREFIX + docId);
+    }
+
+    public DiskCache getCache() {
+        return cache;
+    }
+
+    protected byte[] fetch(String path) {
+        Response response = nuxeoClient.get(baseURL + ConstantsV1.API_PATH + path);
+        try {
+            if (!response.isSuccessful()) {
+                throw nuxeoClient.getConverterFactory().readJSON(response.body().string(),
+                        NuxeoClientException.class);
+            }
+            return response.body().bytes();
+        } catch (IOException reason) {
+            throw new NuxeoClientException(reason);
+        } finally {
+            response.close();
+        }
+    }
+
+    protected byte[] read(String key, String version) {
+        try {
+            return cache.get(key, version);
+        } catch (IOException reason) {
+            throw new NuxeoClientException(reason);
+        }
+    }
+
+    protected void write(String key, String version, byte[] data) {
+        try {
+            cache.put(key, version, data);
+        } catch (IOException reason) {
+            throw new NuxeoClientException(reason);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Small in-memory cache whose entries expire after a fixed time to live, bounded to a maximum number of entries with
+ * least recently used eviction.
+ * <p>
+ * Values are loaded outside of the cache lock so that a slow server call does not block readers of other keys.
+ *
+ * @since 2.2
+ */
+public class ExpiringCache<K, V> {
+
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    protected final long ttlNanos;
+
+    protected final int maxSize;
+
+    protected final LinkedHashMap<K, CacheEntry<V>> entries;
+
+    public ExpiringCache(long ttl, TimeUnit unit) {
+        this(ttl, unit, UNBOUNDED);
+    }
+
+    public ExpiringCache(long ttl, TimeUnit unit, int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be positive: " + maxSize);
+        }
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                return size() > ExpiringCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the cached value, or null if absent or expired.
+     */
+    public synchronized V getIfPresent(K key) {
+        CacheEntry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        V value = getIfPresent(key);
+        if (value == null) {
+            value = loader.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    public synchronized void put(K key, V value) {
+        entries.put(key, new CacheEntry<>(value, System.nanoTime() + ttlNanos));
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    protected static class CacheEntry<V> {
+
+        protected final V value;
+
+        protected final long expiresAt;
+
+        protected CacheEntry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        protected boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
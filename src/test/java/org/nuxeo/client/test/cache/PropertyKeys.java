@@ -0,0 +1,214 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.nuxeo.client.api.objects.Document;
+import org.nuxeo.client.api.objects.Documents;
+
+/**
+ * Dictionary of property keys shared by the documents of a client.
+ * <p>
+ * Each key, such as {@code dc:title} or {@code file:content}, is kept once. Each distinct set of keys is kept once as
+ * a {@link Shape}, so documents of the same type share the key lookup table and only hold their values, in
+ * {@link CompactProperties}.
+ * <p>
+ * The dictionary is bounded: past {@link #DEFAULT_MAX_KEYS} keys or {@link #DEFAULT_MAX_SHAPES} shapes, or the given
+ * limits, new keys and shapes are used without being kept, so that documents with arbitrary keys, such as the entries
+ * of a free form complex property, cannot grow it forever. Such documents are still compacted, they only stop sharing.
+ *
+ * @since 2.2
+ */
+public class PropertyKeys {
+
+    public static final int DEFAULT_MAX_KEYS = 10000;
+
+    public static final int DEFAULT_MAX_SHAPES = 1000;
+
+    /**
+     * Number of shapes reached by adding a key to a shape that are kept by this shape.
+     */
+    protected static final int MAX_ADDITIONS = 16;
+
+    protected final ConcurrentHashMap<String, String> keys = new ConcurrentHashMap<>();
+
+    protected final ConcurrentHashMap<List<String>, Shape> shapes = new ConcurrentHashMap<>();
+
+    protected final int maxKeys;
+
+    protected final int maxShapes;
+
+    protected final Shape empty;
+
+    public PropertyKeys() {
+        this(DEFAULT_MAX_KEYS, DEFAULT_MAX_SHAPES);
+    }
+
+    public PropertyKeys(int maxKeys, int maxShapes) {
+        this.maxKeys = maxKeys;
+        this.maxShapes = maxShapes;
+        this.empty = new Shape(this, new String[0]);
+        shapes.put(Collections.emptyList(), empty);
+    }
+
+    public String intern(String key) {
+        String interned = keys.get(key);
+        if (interned != null) {
+            return interned;
+        } else if (keys.size() >= maxKeys) {
+            return key;
+        }
+        interned = keys.putIfAbsent(key, key);
+        return interned == null ? key : interned;
+    }
+
+    /**
+     * Replaces the document properties with a compact copy.
+     */
+    public Document compact(Document document) {
+        Map<String, Object> properties = document.getProperties();
+        if (properties != null && !(properties instanceof CompactProperties)) {
+            document.setProperties(compact(properties));
+        }
+        return document;
+    }
+
+    public Documents compact(Documents documents) {
+        for (Document document : documents.getDocuments()) {
+            compact(document);
+        }
+        return documents;
+    }
+
+    /**
+     * @return a compact copy of the properties, complex values included.
+     */
+    public CompactProperties compact(Map<String, ?> properties) {
+        String[] shapeKeys = new String[properties.size()];
+        Object[] values = new Object[properties.size()];
+        int i = 0;
+        for (Map.Entry<String, ?> entry : properties.entrySet()) {
+            shapeKeys[i] = intern(entry.getKey());
+            values[i] = compactValue(entry.getValue());
+            i++;
+        }
+        return new CompactProperties(shape(shapeKeys), values);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Object compactValue(Object value) {
+        if (value instanceof Map && !(value instanceof CompactProperties)) {
+            return compact((Map<String, ?>) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            List<Object> compacted = new ArrayList<>(list.size());
+            for (Object item : list) {
+                compacted.add(compactValue(item));
+            }
+            return compacted;
+        }
+        return value;
+    }
+
+    protected Shape shape(String[] shapeKeys) {
+        List<String> list = Arrays.asList(shapeKeys);
+        Shape shape = shapes.get(list);
+        if (shape != null) {
+            return shape;
+        } else if (shapes.size() >= maxShapes) {
+            return new Shape(this, shapeKeys);
+        }
+        return shapes.computeIfAbsent(list, k -> new Shape(this, shapeKeys));
+    }
+
+    public Shape getEmptyShape() {
+        return empty;
+    }
+
+    /**
+     * @return the number of distinct keys.
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    public int getShapeCount() {
+        return shapes.size();
+    }
+
+    /**
+     * Ordered set of keys shared by all the property maps having exactly these keys.
+     */
+    public static class Shape {
+
+        protected final PropertyKeys dictionary;
+
+        protected final String[] keys;
+
+        protected final Map<String, Integer> indexes;
+
+        protected final ConcurrentHashMap<String, Shape> additions = new ConcurrentHashMap<>();
+
+        protected Shape(PropertyKeys dictionary, String[] keys) {
+            this.dictionary = dictionary;
+            this.keys = keys;
+            this.indexes = new HashMap<>(keys.length * 4 / 3 + 1);
+            for (int i = 0; i < keys.length; i++) {
+                indexes.put(keys[i], i);
+            }
+        }
+
+        public int indexOf(Object key) {
+            Integer index = indexes.get(key);
+            return index == null ? -1 : index;
+        }
+
+        public int size() {
+            return keys.length;
+        }
+
+        public String getKey(int index) {
+            return keys[index];
+        }
+
+        protected Shape with(String key) {
+            Shape shape = additions.get(key);
+            if (shape == null) {
+                String[] extended = Arrays.copyOf(keys, keys.length + 1);
+                extended[keys.length] = dictionary.intern(key);
+                shape = dictionary.shape(extended);
+                if (additions.size() < MAX_ADDITIONS) {
+                    additions.putIfAbsent(key, shape);
+                }
+            }
+            return shape;
+        }
+
+        protected Shape without(int index) {
+            String[] reduced = new String[keys.length - 1];
+            System.arraycopy(keys, 0, reduced, 0, index);
+            System.arraycopy(keys, index + 1, reduced, index, keys.length - index - 1);
+            return dictionary.shape(reduced);
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.cluster;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.upload.BatchUpload;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+
+/**
+ * Spreads calls over the nodes of a Nuxeo cluster, each node being reached through its own {@link NuxeoClient}.
+ * <p>
+ * A node is picked with the {@link Strategy} among the nodes which are not ejected. A node is ejected for
+ * {@link #ejectionTime(long, TimeUnit)} when it cannot be connected to, or after {@link #maxFailures(int)} consecutive
+ * server errors or calls left without response. A call which could not connect to its node is sent to another one. A
+ * call which failed after its request was sent, on a read timeout or a reset connection, may have been applied by the
+ * node: it is only sent to another node when run with {@link #executeIdempotent(Function)}. Ejected nodes are probed by
+ * the optional health checks and put back as soon as they answer.
+ * <p>
+ * Objects returned by a call keep using the client of the node which created them, so a {@link BatchUpload} obtained
+ * from {@link #fetchUploadManager()} sticks to the node holding the batch.
+ *
+ * @since 2.2
+ */
+public class NuxeoCluster implements AutoCloseable {
+
+    public enum Strategy {
+        LEAST_OUTSTANDING_REQUESTS, POWER_OF_TWO_CHOICES
+    }
+
+    public static final int DEFAULT_MAX_FAILURES = 3;
+
+    public static final long DEFAULT_EJECTION_SECONDS = 30;
+
+    protected final List<Node> nodes;
+
+    protected Strategy strategy = Strategy.POWER_OF_TWO_CHOICES;
+
+    protected int maxFailures = DEFAULT_MAX_FAILURES;
+
+    protected long ejectionNanos = TimeUnit.SECONDS.toNanos(DEFAULT_EJECTION_SECONDS);
+
+    protected Consumer<NuxeoClient> healthCheck = NuxeoClient::fetchCurrentUser;
+
+    protected ScheduledExecutorService scheduler;
+
+    /**
+     * @param urls the base URLs of the nodes.
+     * @param clientFactory creates and configures the client of a node from its URL.
+     */
+    public NuxeoCluster(List<String> urls, Function<String, NuxeoClient> clientFactory) {
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("No node given");
+        }
+        List<Node> list = new ArrayList<>();
+        for (String url : urls) {
+            list.add(new Node(url, clientFactory.apply(url)));
+        }
+        nodes = Collections.unmodifiableList(list);
+    }
+
+    public NuxeoCluster strategy(Strategy strategy) {
+        this.strategy = strategy;
+        return this;
+    }
+
+    public NuxeoCluster maxFailures(int maxFailures) {
+        this.maxFailures = maxFailures;
+        return this;
+    }
+
+    public NuxeoCluster ejectionTime(long ejectionTime, TimeUnit unit) {
+        this.ejectionNanos = unit.toNanos(ejectionTime);
+        return this;
+    }
+
+    public NuxeoCluster healthCheck(Consumer<NuxeoClient> healthCheck) {
+        this.healthCheck = healthCheck;
+        return this;
+    }
+
+    /**
+     * Probes every node periodically: ejected nodes answering are put back, unreachable nodes are ejected.
+     */
+    public synchronized NuxeoCluster startHealthChecks(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Health checks already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nuxeo-cluster-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkHealth, period, period, unit);
+        return this;
+    }
+
+    public void checkHealth() {
+        for (Node node : nodes) {
+            try {
+                healthCheck.accept(node.getClient());
+                node.reinstate();
+            } catch (NuxeoClientException reason) {
+                node.eject(System.nanoTime() + ejectionNanos);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Runs the call on a node, trying the other nodes when the selected one cannot be connected to.
+     */
+    public <T> T execute(Function<NuxeoClient, T> call) {
+        return execute(call, false);
+    }
+
+    /**
+     * Runs the call on a node, trying the other nodes when the selected one does not respond. The call must be safe to
+     * send twice, as a node may have processed a request it did not answer.
+     */
+    public <T> T executeIdempotent(Function<NuxeoClient, T> call) {
+        return execute(call, true);
+    }
+
+    protected <T> T execute(Function<NuxeoClient, T> call, boolean idempotent) {
+        List<Node> tried = new ArrayList<>();
+        NuxeoClientException failure = null;
+        for (Node node = select(tried); node != null; node = select(tried)) {
+            tried.add(node);
+            node.outstanding.incrementAndGet();
+            try {
+                T result = call.apply(node.getClient());
+                node.success();
+                return result;
+            } catch (NuxeoClientException reason) {
+                if (isConnectFailure(reason)) {
+                    node.eject(System.nanoTime() + ejectionNanos);
+                    failure = reason;
+                    continue;
+                }
+                if (isUnreachable(reason) || reason.getStatus() >= 500) {
+                    node.failure(maxFailures, System.nanoTime() + ejectionNanos);
+                } else {
+                    node.success();
+                }
+                if (!idempotent || !isUnreachable(reason)) {
+                    throw reason;
+                }
+                failure = reason;
+            } finally {
+                node.outstanding.decrementAndGet();
+            }
+        }
+        throw failure != null ? failure : new NuxeoClientException("No node available");
+    }
+
+    public BatchUpload fetchUploadManager() {
+        return execute(NuxeoClient::fetchUploadManager);
+    }
+
+    protected boolean isUnreachable(NuxeoClientException reason) {
+        // no HTTP status means the request did not get any response
+        return reason.getStatus() <= 0;
+    }
+
+    /**
+     * @return whether the call failed before its request could be sent, so that no node processed it.
+     */
+    protected boolean isConnectFailure(NuxeoClientException reason) {
+        if (!isUnreachable(reason)) {
+            return false;
+        }
+        for (Throwable cause = reason; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof UnknownHostException
+                    || cause instanceof NoRouteToHostException) {
+                return true;
+            }
+            if (cause instanceof SocketTimeoutException && String.valueOf(cause.getMessage()).startsWith("connect")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the node to call among the ones not tried yet, ejected nodes being used only if no other is left.
+     */
+    protected Node select(List<Node> tried) {
+        long now = System.nanoTime();
+        List<Node> candidates = new ArrayList<>();
+        for (Node node : nodes) {
+            if (!tried.contains(node) && node.isAvailable(now)) {
+                candidates.add(node);
+            }
+        }
+        if (candidates.isEmpty()) {
+            if (!tried.isEmpty()) {
+                return null;
+            }
+            // every node is ejected, give them a chance rather than failing without trying
+            candidates.addAll(nodes);
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        if (strategy == Strategy.POWER_OF_TWO_CHOICES) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(candidates.size());
+            int second = random.nextInt(candidates.size() - 1);
+            if (second >= first) {
+                second++;
+            }
+            return lessLoaded(candidates.get(first), candidates.get(second));
+        }
+        Node best = candidates.get(0);
+        for (Node node : candidates) {
+            best = lessLoaded(best, node);
+        }
+        return best;
+    }
+
+    protected static Node lessLoaded(Node first, Node second) {
+        return second.getOutstanding() < first.getOutstanding() ? second : first;
+    }
+
+    /**
+     * A cluster node and its load and health state.
+     */
+    public static class Node {
+
+        protected final String url;
+
+        protected final NuxeoClient client;
+
+        protected final AtomicInteger outstanding = new AtomicInteger();
+
+        protected final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+        protected final AtomicLong calls = new AtomicLong();
+
+        protected volatile long ejectedUntil;
+
+        protected volatile boolean ejected;
+
+        public Node(String url, NuxeoClient client) {
+            this.url = url;
+            this.client = client;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public NuxeoClient getClient() {
+            return client;
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public boolean isEjected() {
+            return ejected && System.nanoTime() - ejectedUntil < 0;
+        }
+
+        protected boolean isAvailable(long now) {
+            return !ejected || now - ejectedUntil >= 0;
+        }
+
+        protected void success() {
+            calls.incrementAndGet();
+            consecutiveFailures.set(0);
+        }
+
+        protected void failure(int maxFailures, long until) {
+            calls.incrementAndGet();
+            if (consecutiveFailures.incrementAndGet() >= maxFailures) {
+                eject(until);
+            }
+        }
+
+        protected void eject(long until) {
+            ejectedUntil = until;
+            ejected = true;
+        }
+
+        protected void reinstate() {
+            consecutiveFailures.set(0);
+            ejected = false;
+        }
+    }
+}
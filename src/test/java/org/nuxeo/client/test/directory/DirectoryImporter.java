@@ -0,0 +1,233 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.directory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.directory.DirectoryEntry;
+import org.nuxeo.client.api.objects.directory.DirectoryEntryProperties;
+import org.nuxeo.client.api.objects.directory.DirectoryManager;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+import org.nuxeo.client.test.batch.BatchReport;
+import org.nuxeo.client.test.batch.BatchRunner;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Streams directory entries from a CSV file, shaped like the directory data files, or from JSON lines into a
+ * directory.
+ * <p>
+ * Only {@link #batchSize(int)} rows are held in memory at a time; each batch is sent with up to
+ * {@link #parallelism(int)} concurrent {@link DirectoryManager#createDirectoryEntry(String, DirectoryEntry)} calls. The
+ * report is keyed by line number, invalid rows being reported without reaching the server.
+ *
+ * @since 2.2
+ */
+public class DirectoryImporter {
+
+    public static final int DEFAULT_BATCH_SIZE = 200;
+
+    protected final NuxeoClient nuxeoClient;
+
+    protected final String directoryName;
+
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+
+    protected int parallelism = BatchRunner.DEFAULT_PARALLELISM;
+
+    protected final ObjectMapper objectMapper = new ObjectMapper();
+
+    public DirectoryImporter(NuxeoClient nuxeoClient, String directoryName) {
+        this.nuxeoClient = nuxeoClient;
+        this.directoryName = directoryName;
+    }
+
+    public DirectoryImporter batchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public DirectoryImporter parallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Imports a CSV content whose first line holds the column names, for instance {@code id, label, obsolete}.
+     */
+    public BatchReport<Integer> importCsv(Reader reader) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        String header = lines.readLine();
+        if (header == null) {
+            return new BatchReport<>();
+        }
+        List<String> columns = new ArrayList<>();
+        for (String column : parseCsvLine(header)) {
+            columns.add(column.trim());
+        }
+        return importLines(lines, 2, line -> {
+            List<String> values = parseCsvLine(line);
+            if (values.size() != columns.size()) {
+                throw new IllegalArgumentException(
+                        "Expected " + columns.size() + " values but got " + values.size() + ": " + line);
+            }
+            Map<String, Object> row = new HashMap<>();
+            for (int i = 0; i < values.size(); i++) {
+                row.put(columns.get(i), values.get(i));
+            }
+            return row;
+        });
+    }
+
+    /**
+     * Imports one JSON object per line, for instance {@code {"id": "europe", "label": "Europe"}}. Other JSON values,
+     * {@code null} included, are reported as bad entries.
+     */
+    @SuppressWarnings("unchecked")
+    public BatchReport<Integer> importJsonLines(Reader reader) throws IOException {
+        return importLines(new BufferedReader(reader), 1, line -> {
+            JsonNode node;
+            try {
+                node = objectMapper.readTree(line);
+            } catch (IOException reason) {
+                throw new IllegalArgumentException("Invalid JSON: " + line, reason);
+            }
+            if (node == null || !node.isObject()) {
+                throw new IllegalArgumentException("Not a JSON object: " + line);
+            }
+            return objectMapper.convertValue(node, Map.class);
+        });
+    }
+
+    protected BatchReport<Integer> importLines(BufferedReader lines, int firstLineNumber, RowParser parser)
+            throws IOException {
+        BatchRunner runner = new BatchRunner(parallelism);
+        DirectoryManager directoryManager = nuxeoClient.getDirectoryManager();
+        BatchReport<Integer> report = new BatchReport<>();
+        Map<Integer, DirectoryEntry> batch = new LinkedHashMap<>();
+        int lineNumber = firstLineNumber;
+        for (String line = lines.readLine(); line != null; line = lines.readLine(), lineNumber++) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                batch.put(lineNumber, toEntry(parser.parse(line)));
+            } catch (IllegalArgumentException reason) {
+                report.failure(lineNumber, new NuxeoClientException("Line " + lineNumber + ": " + reason.getMessage(),
+                        reason));
+            }
+            if (batch.size() == batchSize) {
+                send(runner, directoryManager, batch, report);
+            }
+        }
+        send(runner, directoryManager, batch, report);
+        return report;
+    }
+
+    protected void send(BatchRunner runner, DirectoryManager directoryManager, Map<Integer, DirectoryEntry> batch,
+            BatchReport<Integer> report) {
+        runner.run(new ArrayList<>(batch.keySet()),
+                lineNumber -> directoryManager.createDirectoryEntry(directoryName, batch.get(lineNumber)), report);
+        batch.clear();
+    }
+
+    protected DirectoryEntry toEntry(Map<String, Object> row) {
+        Object id = row.get("id");
+        if (id == null || id.toString().isEmpty()) {
+            throw new IllegalArgumentException("Missing id");
+        }
+        DirectoryEntryProperties properties = new DirectoryEntryProperties();
+        properties.setId(id.toString());
+        if (row.get("label") != null) {
+            properties.setLabel(row.get("label").toString());
+        }
+        if (row.get("parent") != null) {
+            properties.setParent(row.get("parent").toString());
+        }
+        properties.setObsolete(toInteger(row.get("obsolete")));
+        properties.setOrdering(toInteger(row.get("ordering")));
+        DirectoryEntry entry = new DirectoryEntry();
+        entry.setDirectoryName(directoryName);
+        entry.setProperties(properties);
+        return entry;
+    }
+
+    protected static Integer toInteger(Object value) {
+        if (value == null || value.toString().isEmpty()) {
+            return 0;
+        }
+        try {
+            return Integer.valueOf(value.toString().trim());
+        } catch (NumberFormatException reason) {
+            throw new IllegalArgumentException("Not a number: " + value, reason);
+        }
+    }
+
+    /**
+     * Splits a CSV line on commas, handling double quoted values and escaped quotes.
+     */
+    protected static List<String> parseCsvLine(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else if (c != ' ' || value.length() > 0) {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted value: " + line);
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    @FunctionalInterface
+    protected interface RowParser {
+
+        Map<String, Object> parse(String line);
+    }
+}
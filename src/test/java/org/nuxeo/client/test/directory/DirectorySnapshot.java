@@ -0,0 +1,199 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.directory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.directory.Directory;
+import org.nuxeo.client.api.objects.directory.DirectoryEntry;
+
+/**
+ * In-memory copy of a whole directory, typically a vocabulary read by every form.
+ * <p>
+ * Entries are kept in an immutable {@link Index} sorted by id. A refresh builds a new index and swaps it atomically,
+ * so readers never wait for the network once the first snapshot has been loaded. Refreshes can be scheduled in the
+ * background with {@link #start(long, TimeUnit)}; a failing refresh keeps the previous snapshot.
+ *
+ * @since 2.2
+ */
+public class DirectorySnapshot implements AutoCloseable {
+
+    private static final Log log = LogFactory.getLog(DirectorySnapshot.class);
+
+    protected final NuxeoClient nuxeoClient;
+
+    protected final String directoryName;
+
+    protected volatile Index index;
+
+    protected ScheduledExecutorService scheduler;
+
+    public DirectorySnapshot(NuxeoClient nuxeoClient, String directoryName) {
+        this.nuxeoClient = nuxeoClient;
+        this.directoryName = directoryName;
+    }
+
+    public String getDirectoryName() {
+        return directoryName;
+    }
+
+    /**
+     * Fetches the directory and swaps the current snapshot.
+     */
+    public Index refresh() {
+        Directory directory = nuxeoClient.getDirectoryManager().fetchDirectory(directoryName);
+        Index newIndex = new Index(directory.getDirectoryEntries());
+        index = newIndex;
+        return newIndex;
+    }
+
+    /**
+     * Refreshes the snapshot periodically in a background thread, the first refresh happening after one period.
+     */
+    public synchronized DirectorySnapshot start(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Snapshot of " + directoryName + " already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "directory-snapshot-" + directoryName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (RuntimeException reason) {
+                // an exception escaping the task would cancel the later refreshes
+                log.warn("Cannot refresh directory " + directoryName + ", keeping previous snapshot", reason);
+            }
+        }, period, period, unit);
+        return this;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return the current snapshot, loading it synchronously if no snapshot has been taken yet.
+     */
+    public Index getIndex() {
+        Index current = index;
+        if (current == null) {
+            synchronized (this) {
+                current = index;
+                if (current == null) {
+                    current = refresh();
+                }
+            }
+        }
+        return current;
+    }
+
+    public DirectoryEntry getEntry(String id) {
+        return getIndex().getEntry(id);
+    }
+
+    public String getLabel(String id) {
+        return getIndex().getLabel(id);
+    }
+
+    public List<String> getIds() {
+        return getIndex().getIds();
+    }
+
+    public int size() {
+        return getIndex().size();
+    }
+
+    /**
+     * Immutable view of the directory entries, sorted by id and looked up by binary search.
+     */
+    public static class Index {
+
+        protected final String[] ids;
+
+        protected final String[] labels;
+
+        protected final DirectoryEntry[] entries;
+
+        public Index(List<DirectoryEntry> directoryEntries) {
+            List<DirectoryEntry> sorted = new ArrayList<>(directoryEntries);
+            sorted.sort(Comparator.comparing(entry -> entry.getProperties().getId()));
+            int size = sorted.size();
+            ids = new String[size];
+            labels = new String[size];
+            entries = sorted.toArray(new DirectoryEntry[size]);
+            for (int i = 0; i < size; i++) {
+                ids[i] = entries[i].getProperties().getId();
+                labels[i] = entries[i].getProperties().getLabel();
+            }
+        }
+
+        protected int indexOf(String id) {
+            return id == null ? -1 : Arrays.binarySearch(ids, id);
+        }
+
+        public boolean contains(String id) {
+            return indexOf(id) >= 0;
+        }
+
+        public DirectoryEntry getEntry(String id) {
+            int i = indexOf(id);
+            return i < 0 ? null : entries[i];
+        }
+
+        public String getLabel(String id) {
+            int i = indexOf(id);
+            return i < 0 ? null : labels[i];
+        }
+
+        /**
+         * @return the ids of the entries having the given label.
+         */
+        public List<String> findIdsByLabel(String label) {
+            List<String> result = new ArrayList<>();
+            for (int i = 0; i < labels.length; i++) {
+                if (label.equals(labels[i])) {
+                    result.add(ids[i]);
+                }
+            }
+            return result;
+        }
+
+        public List<String> getIds() {
+            return Collections.unmodifiableList(Arrays.asList(ids));
+        }
+
+        public int size() {
+            return ids.length;
+        }
+    }
+}
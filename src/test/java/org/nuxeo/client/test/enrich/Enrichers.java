@@ -0,0 +1,184 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.enrich;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import org.nuxeo.client.api.ConstantsV1;
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.Document;
+import org.nuxeo.client.api.objects.Documents;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+import org.nuxeo.client.test.stream.StreamingClient;
+
+/**
+ * Document enrichers scoped to a single request, instead of {@link NuxeoClient#enrichers(String...)} which applies to
+ * every later call of the client.
+ * <p>
+ * Enrichers are passed as the {@value #ENRICHERS_PARAMETER} query parameter of the request only. For listings,
+ * {@link #lazily(Document, String...)} keeps the documents light and fetches their enrichers in a second request, in
+ * the background, the first time their context parameters are read. This second request sends an empty
+ * {@value #DOCUMENT_PROPERTIES_HEADER} header, so the server only returns the document with its context parameters
+ * and none of its schemas, whatever {@link NuxeoClient#schemas(String...)} the client uses. At most
+ * {@link #DEFAULT_FETCH_THREADS} of these requests, or the given number of threads, run at the same time.
+ * <p>
+ * Once {@link #close() closed}, the fetches not completed yet fail, as well as any later lazy access.
+ *
+ * @since 2.2
+ */
+public class Enrichers implements AutoCloseable {
+
+    public static final String ENRICHERS_PARAMETER = "enrichers.document";
+
+    public static final String DOCUMENT_PROPERTIES_HEADER = "X-NXDocumentProperties";
+
+    public static final int DEFAULT_FETCH_THREADS = 4;
+
+    protected final NuxeoClient nuxeoClient;
+
+    protected final String baseURL;
+
+    protected final StreamingClient contextClient;
+
+    protected final ExecutorService executor;
+
+    protected final Set<CompletableFuture<Map<String, Object>>> pending = ConcurrentHashMap.newKeySet();
+
+    protected volatile boolean closed;
+
+    /**
+     * @param authentication the authentication of the background requests fetching the context parameters.
+     */
+    public Enrichers(NuxeoClient nuxeoClient, String baseURL, Interceptor authentication) {
+        this(nuxeoClient, baseURL, authentication, DEFAULT_FETCH_THREADS);
+    }
+
+    public Enrichers(NuxeoClient nuxeoClient, String baseURL, Interceptor authentication, int fetchThreads) {
+        this.nuxeoClient = nuxeoClient;
+        this.baseURL = baseURL;
+        this.contextClient = new StreamingClient(nuxeoClient, baseURL, authentication).header(
+                DOCUMENT_PROPERTIES_HEADER, "");
+        this.executor = Executors.newFixedThreadPool(fetchThreads, runnable -> {
+            Thread thread = new Thread(runnable, "nuxeo-client-enrichers");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Document fetchDocumentById(String docId, String... enrichers) {
+        return fetch("id/" + docId, enrichers);
+    }
+
+    public Document fetchDocumentByPath(String path, String... enrichers) {
+        return fetch("path" + (path.startsWith("/") ? path : "/" + path), enrichers);
+    }
+
+    /**
+     * @return a copy of the document whose context parameters are fetched with the given enrichers on first access.
+     */
+    public LazyEnrichedDocument lazily(Document document, String... enrichers) {
+        checkOpen();
+        return new LazyEnrichedDocument(document, () -> fetchLater(document.getId(), enrichers));
+    }
+
+    /**
+     * Wraps each document of the listing, see {@link #lazily(Document, String...)}.
+     */
+    public Documents lazily(Documents documents, String... enrichers) {
+        for (int i = 0; i < documents.getDocuments().size(); i++) {
+            documents.getDocuments().set(i, lazily(documents.getDocuments().get(i), enrichers));
+        }
+        return documents;
+    }
+
+    /**
+     * Queues the fetch of the context parameters. The returned future is always completed: by the fetch, or by
+     * {@link #close()} when the fetch did not run.
+     */
+    protected CompletableFuture<Map<String, Object>> fetchLater(String docId, String... enrichers) {
+        checkOpen();
+        CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+        pending.add(future);
+        future.whenComplete((parameters, error) -> pending.remove(future));
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(fetchContextParameters(docId, enrichers));
+                } catch (RuntimeException reason) {
+                    future.completeExceptionally(reason);
+                }
+            });
+        } catch (RejectedExecutionException reason) {
+            future.completeExceptionally(new NuxeoClientException("Enrichers are closed", reason));
+        }
+        return future;
+    }
+
+    protected void checkOpen() {
+        if (closed) {
+            throw new NuxeoClientException("Enrichers are closed");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Map<String, Object> fetchContextParameters(String docId, String... enrichers) {
+        String path = "id/" + docId + "?" + ENRICHERS_PARAMETER + "=" + String.join(",", enrichers);
+        Map<String, Object> document = contextClient.fetchJSON(path, Map.class);
+        return (Map<String, Object>) document.get("contextParameters");
+    }
+
+    protected Document fetch(String path, String... enrichers) {
+        HttpUrl.Builder url = HttpUrl.parse(baseURL + ConstantsV1.API_PATH + path).newBuilder();
+        if (enrichers.length > 0) {
+            url.addQueryParameter(ENRICHERS_PARAMETER, String.join(",", enrichers));
+        }
+        Response response = nuxeoClient.get(url.build().toString());
+        try {
+            String json = response.body().string();
+            if (!response.isSuccessful()) {
+                throw nuxeoClient.getConverterFactory().readJSON(json, NuxeoClientException.class);
+            }
+            return nuxeoClient.getConverterFactory().readJSON(json, Document.class);
+        } catch (IOException reason) {
+            throw new NuxeoClientException(reason);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Stops the background fetches; documents whose context parameters were not fetched yet fail on access.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+        for (CompletableFuture<Map<String, Object>> future : pending) {
+            future.completeExceptionally(new NuxeoClientException("Enrichers closed before the fetch completed"));
+        }
+    }
+}
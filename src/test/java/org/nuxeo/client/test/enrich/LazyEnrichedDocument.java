@@ -0,0 +1,68 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.enrich;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import org.nuxeo.client.api.objects.Document;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+
+/**
+ * Document whose context parameters are fetched in a second request, started by {@link #prefetch()} or on the first
+ * call to {@link #getContextParameters()}.
+ *
+ * @since 2.2
+ */
+public class LazyEnrichedDocument extends Document {
+
+    protected final Supplier<CompletableFuture<Map<String, Object>>> enrichment;
+
+    protected CompletableFuture<Map<String, Object>> contextParameters;
+
+    public LazyEnrichedDocument(Document document, Supplier<CompletableFuture<Map<String, Object>>> enrichment) {
+        super(document);
+        this.enrichment = enrichment;
+    }
+
+    /**
+     * Starts fetching the enrichers in the background, if not already started.
+     */
+    public synchronized CompletableFuture<Map<String, Object>> prefetch() {
+        if (contextParameters == null) {
+            contextParameters = enrichment.get();
+        }
+        return contextParameters;
+    }
+
+    public synchronized boolean isFetched() {
+        return contextParameters != null && contextParameters.isDone();
+    }
+
+    @Override
+    public Map<String, Object> getContextParameters() {
+        try {
+            return prefetch().join();
+        } catch (CompletionException reason) {
+            if (reason.getCause() instanceof NuxeoClientException) {
+                throw (NuxeoClientException) reason.getCause();
+            }
+            throw new NuxeoClientException(reason.getCause());
+        }
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.harness;
+
+/**
+ * JUnit category of the tests comparing allocations to recorded baselines, which depend on the JVM. Excluded from the
+ * default build until the baselines of the build JVM are recorded, run with {@code mvn test -Pallocation}.
+ *
+ * @since 2.2
+ */
+public interface AllocationRegression {
+}
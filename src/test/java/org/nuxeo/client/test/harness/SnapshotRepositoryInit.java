@@ -0,0 +1,67 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.harness;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentRef;
+import org.nuxeo.ecm.restapi.test.RestServerInit;
+
+/**
+ * {@link RestServerInit} running once per test class: the documents it creates are snapshotted, and the following
+ * initialisations, after each method cleanup, import the snapshot back instead of creating the documents again.
+ * <p>
+ * Users and groups are only created by the first initialisation, so test classes changing them should keep
+ * {@link RestServerInit}. Set the {@value #SNAPSHOT_PROPERTY} system property to false to initialise the repository
+ * from scratch every time, for instance to compare suite durations.
+ *
+ * @since 2.2
+ */
+public class SnapshotRepositoryInit extends RestServerInit {
+
+    public static final String SNAPSHOT_PROPERTY = "nuxeo.test.snapshot";
+
+    protected List<DocumentModel> snapshot;
+
+    @Override
+    public void populate(CoreSession session) {
+        if (snapshot != null) {
+            session.importDocuments(snapshot);
+            session.save();
+            return;
+        }
+        super.populate(session);
+        if (Boolean.parseBoolean(System.getProperty(SNAPSHOT_PROPERTY, "true"))) {
+            List<DocumentModel> documents = new ArrayList<>();
+            collect(session, session.getRootDocument().getRef(), documents);
+            snapshot = documents;
+        }
+    }
+
+    /**
+     * Adds the descendants of the parent, parents first, detached from the session.
+     */
+    protected void collect(CoreSession session, DocumentRef parent, List<DocumentModel> documents) {
+        for (DocumentModel child : session.getChildren(parent)) {
+            child.detach(true);
+            documents.add(child);
+            collect(session, child.getRef(), documents);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.harness;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * Reports the wall-clock time of each test class and of the whole run, server start up included.
+ * <p>
+ * Registered as a surefire listener. Surefire notifies one run per forked JVM, whatever the number of test classes it
+ * executes, so classes are told apart by the {@link Description#getClassName() class name} of their tests: a class
+ * lasts from the end of the previous class, which accounts for its server start up, to the end of its last test. The
+ * report is logged when the run finishes, once per fork.
+ *
+ * @since 2.2
+ */
+public class SuiteTimingListener extends RunListener {
+
+    private static final Log log = LogFactory.getLog(SuiteTimingListener.class);
+
+    protected final Map<String, Long> durations = new LinkedHashMap<>();
+
+    protected final Map<String, Integer> counts = new LinkedHashMap<>();
+
+    protected long runStart;
+
+    protected long lastFinish;
+
+    protected long classStart;
+
+    protected String className;
+
+    @Override
+    public synchronized void testRunStarted(Description description) {
+        runStart = lastFinish = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void testStarted(Description description) {
+        String name = description.getClassName();
+        if (!name.equals(className)) {
+            className = name;
+            classStart = lastFinish;
+        }
+    }
+
+    @Override
+    public synchronized void testFinished(Description description) {
+        lastFinish = System.nanoTime();
+        String name = description.getClassName();
+        durations.put(name, lastFinish - classStart);
+        counts.merge(name, 1, Integer::sum);
+    }
+
+    @Override
+    public synchronized void testRunFinished(Result result) {
+        for (Map.Entry<String, Long> duration : durations.entrySet()) {
+            log.info(String.format("%s: %d tests in %d ms", duration.getKey(), counts.get(duration.getKey()),
+                    TimeUnit.NANOSECONDS.toMillis(duration.getValue())));
+        }
+        log.info(String.format("Test run wall-clock time: %d tests in %d ms", result.getRunCount(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - runStart)));
+        durations.clear();
+        counts.clear();
+        className = null;
+    }
+}
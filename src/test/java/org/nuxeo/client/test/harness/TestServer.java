@@ -0,0 +1,65 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.harness;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+/**
+ * Address of the embedded test server of the current test JVM.
+ * <p>
+ * The port is read from the {@value #PORT_PROPERTY} system property, {@value #DEFAULT_PORT} by default. When set to 0,
+ * a free port is picked once and written back to the property, so that each surefire fork gets its own server:
+ *
+ * <pre>
+ * mvn test -Pparallel-tests -Dtest.forks=4
+ * </pre>
+ *
+ * @since 2.2
+ */
+public final class TestServer {
+
+    public static final String PORT_PROPERTY = "nuxeo.test.port";
+
+    public static final int DEFAULT_PORT = 18090;
+
+    private TestServer() {
+    }
+
+    public static synchronized int getPort() {
+        int port = Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT);
+        if (port == 0) {
+            port = findFreePort();
+            System.setProperty(PORT_PROPERTY, String.valueOf(port));
+        }
+        return port;
+    }
+
+    public static String getURL() {
+        return "http://localhost:" + getPort();
+    }
+
+    /**
+     * @return a port nothing listens on when this method returns.
+     */
+    public static int findFreePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException reason) {
+            throw new IllegalStateException("No free port", reason);
+        }
+    }
+}
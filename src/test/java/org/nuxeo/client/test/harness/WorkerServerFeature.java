@@ -0,0 +1,40 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.harness;
+
+import org.nuxeo.ecm.restapi.test.RestServerFeature;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.SimpleFeature;
+
+/**
+ * Binds the embedded Jetty server to the port of {@link TestServer} instead of the {@code @Jetty} one.
+ * <p>
+ * The Jetty feature, initialized before this one, exposes the {@code @Jetty} port as the {@value #JETTY_PORT} system
+ * property read when the server starts; this feature overrides it.
+ *
+ * @since 2.2
+ */
+@Features(RestServerFeature.class)
+public class WorkerServerFeature extends SimpleFeature {
+
+    public static final String JETTY_PORT = "jetty.port";
+
+    @Override
+    public void initialize(FeaturesRunner runner) throws Exception {
+        System.setProperty(JETTY_PORT, String.valueOf(TestServer.getPort()));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.load;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.Document;
+import org.nuxeo.client.api.objects.upload.BatchUpload;
+
+/**
+ * The client calls replayed by a load test: fetch by path, query, create, update, batch upload and automation.
+ * <p>
+ * A mix is written as {@code name=weight} pairs separated by commas, see {@link #DEFAULT_MIX}. Documents are created
+ * under the parent path and the latest ones are the targets of updates. Uploaded batches are dropped once sent so that
+ * the transient store does not grow along a soak.
+ *
+ * @since 2.2
+ */
+public class ClientWorkload {
+
+    public static final String FETCH_BY_PATH = "fetchByPath";
+
+    public static final String QUERY = "query";
+
+    public static final String CREATE = "create";
+
+    public static final String UPDATE = "update";
+
+    public static final String UPLOAD = "upload";
+
+    public static final String AUTOMATION = "automation";
+
+    public static final String DEFAULT_MIX = "fetchByPath=40,query=20,create=10,update=10,upload=5,automation=15";
+
+    protected static final int UPDATE_TARGETS = 256;
+
+    protected final NuxeoClient nuxeoClient;
+
+    protected final String parentPath;
+
+    protected final String documentPath;
+
+    protected final File blob;
+
+    protected final AtomicReferenceArray<String> created = new AtomicReferenceArray<>(UPDATE_TARGETS);
+
+    protected final AtomicLong createdCount = new AtomicLong();
+
+    /**
+     * @param parentPath the folder receiving created documents and listed by automation calls.
+     * @param documentPath the document fetched by path.
+     * @param blob the file uploaded.
+     */
+    public ClientWorkload(NuxeoClient nuxeoClient, String parentPath, String documentPath, File blob) {
+        this.nuxeoClient = nuxeoClient;
+        this.parentPath = parentPath;
+        this.documentPath = documentPath;
+        this.blob = blob;
+    }
+
+    /**
+     * Adds the operations of the mix to the generator, in the order of the mix.
+     */
+    public LoadGenerator register(LoadGenerator generator, String mix) {
+        for (Map.Entry<String, Integer> entry : parseMix(mix).entrySet()) {
+            generator.operation(entry.getKey(), entry.getValue(), operation(entry.getKey()));
+        }
+        return generator;
+    }
+
+    public static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String pair : mix.split(",")) {
+            String[] parts = pair.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry: " + pair);
+            }
+            weights.put(parts[0].trim(), Integer.valueOf(parts[1].trim()));
+        }
+        return Collections.unmodifiableMap(weights);
+    }
+
+    public LoadGenerator.Operation operation(String name) {
+        switch (name) {
+        case FETCH_BY_PATH:
+            return sequence -> nuxeoClient.repository().fetchDocumentByPath(documentPath);
+        case QUERY:
+            return sequence -> nuxeoClient.repository()
+                                          .query("SELECT * FROM Document WHERE ecm:isProxy = 0", "20", "0", null,
+                                                  null, null, null);
+        case CREATE:
+            return this::create;
+        case UPDATE:
+            return this::update;
+        case UPLOAD:
+            return this::upload;
+        case AUTOMATION:
+            return this::automation;
+        default:
+            throw new IllegalArgumentException("Unknown operation: " + name);
+        }
+    }
+
+    protected String create(long sequence) {
+        Document document = new Document("load-" + sequence, "Note");
+        document.setPropertyValue("dc:title", "Load " + sequence);
+        String uid = nuxeoClient.repository().createDocumentByPath(parentPath, document).getUid();
+        created.set((int) (createdCount.getAndIncrement() % UPDATE_TARGETS), uid);
+        return uid;
+    }
+
+    protected void update(long sequence) {
+        long count = createdCount.get();
+        String uid = count == 0 ? null : created.get((int) (sequence % Math.min(count, UPDATE_TARGETS)));
+        if (uid == null) {
+            uid = create(sequence);
+        }
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("dc:description", "Updated by request " + sequence);
+        nuxeoClient.repository()
+                   .updateDocument(new Document(uid, "Note", null, null, null, null, null, null, null, null, null,
+                           properties, null));
+    }
+
+    protected void upload(long sequence) {
+        BatchUpload batchUpload = nuxeoClient.fetchUploadManager();
+        try {
+            batchUpload.upload(blob.getName(), blob.length(), "application/octet-stream", batchUpload.getBatchId(),
+                    "0", blob);
+        } finally {
+            batchUpload.cancel();
+        }
+    }
+
+    /**
+     * Resolves the parent folder then lists its children, the input of the second call being the output of the first.
+     */
+    protected void automation(long sequence) {
+        Document parent = nuxeoClient.automation().param("value", parentPath).execute("Repository.GetDocument");
+        nuxeoClient.automation().input(parent).execute("Document.GetChildren");
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.load;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with HDR-style log-linear buckets: constant memory, values recorded with a relative precision of
+ * 1/{@value #HALF_SUB_BUCKETS} over the whole {@code long} range, and lock-free recording from concurrent threads.
+ * <p>
+ * Values below {@value #SUB_BUCKETS} are counted exactly; above, each power of two is split into
+ * {@value #HALF_SUB_BUCKETS} buckets of equal width.
+ *
+ * @since 2.2
+ */
+public class LatencyHistogram {
+
+    protected static final int SUB_BUCKET_BITS = 8;
+
+    protected static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    protected static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    protected static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+    protected final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    protected final AtomicLong count = new AtomicLong();
+
+    protected final AtomicLong total = new AtomicLong();
+
+    protected final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos a latency, negative values being recorded as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Adds the values recorded by the other histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long bucket = other.counts.get(i);
+            if (bucket > 0) {
+                counts.addAndGet(i, bucket);
+            }
+        }
+        count.addAndGet(other.count.get());
+        total.addAndGet(other.total.get());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long recorded = count.get();
+        return recorded == 0 ? 0 : (double) total.get() / recorded;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the highest value equivalent to the percentile, or 0 without any value.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long recorded = count.get();
+        if (recorded == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * recorded));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    protected static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift);
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + subBucket - HALF_SUB_BUCKETS;
+    }
+
+    protected static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        long highest = ((subBucket + 1) << shift) - 1;
+        return highest < 0 ? Long.MAX_VALUE : highest;
+    }
+
+    /**
+     * @return the count and the mean, p50, p90, p99, p99.9 and max latencies in milliseconds.
+     */
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.2f p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f", getCount(),
+                getMean() / TimeUnit.MILLISECONDS.toNanos(1), millis(getValueAtPercentile(50)),
+                millis(getValueAtPercentile(90)), millis(getValueAtPercentile(99)),
+                millis(getValueAtPercentile(99.9)), millis(getMax()));
+    }
+
+    protected static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
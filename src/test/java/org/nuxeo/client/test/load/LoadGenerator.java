@@ -0,0 +1,241 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Replays a weighted mix of operations at a target request rate with open-model arrivals: requests are issued on
+ * schedule whether or not the previous ones completed, as independent users would, instead of each worker waiting for
+ * its last response.
+ * <p>
+ * The arrival times and the operation of each arrival derive from the seed only, so two runs with the same seed issue
+ * the same sequence of requests. Arrivals follow a Poisson process by default, or are evenly spaced with
+ * {@link #poisson(boolean)}. When {@link #maxOutstanding(int)} requests are already waiting or running, new arrivals
+ * are rejected and reported as such rather than queued without bound. Requests still running once the outstanding
+ * ones have been waited for are reported as failures.
+ *
+ * @since 2.2
+ */
+public class LoadGenerator {
+
+    private static final Log log = LogFactory.getLog(LoadGenerator.class);
+
+    /**
+     * A request of the mix.
+     */
+    @FunctionalInterface
+    public interface Operation {
+
+        /**
+         * @param sequence the arrival number, unique within a run.
+         */
+        void execute(long sequence) throws Exception;
+    }
+
+    protected final long seed;
+
+    protected final List<String> names = new ArrayList<>();
+
+    protected final List<Operation> operations = new ArrayList<>();
+
+    protected final List<Integer> weights = new ArrayList<>();
+
+    protected double rate = 10;
+
+    protected long durationNanos = TimeUnit.SECONDS.toNanos(10);
+
+    protected long intervalNanos = TimeUnit.SECONDS.toNanos(1);
+
+    protected int concurrency = 8;
+
+    protected int maxOutstanding = 1000;
+
+    protected boolean poisson = true;
+
+    public LoadGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param weight the relative frequency of the operation in the mix.
+     */
+    public LoadGenerator operation(String name, int weight, Operation operation) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight of " + name + " must be positive: " + weight);
+        }
+        names.add(name);
+        weights.add(weight);
+        operations.add(operation);
+        return this;
+    }
+
+    /**
+     * @param rate the target number of arrivals per second.
+     */
+    public LoadGenerator rate(double rate) {
+        this.rate = rate;
+        return this;
+    }
+
+    public LoadGenerator duration(long duration, TimeUnit unit) {
+        this.durationNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * @param interval the period over which the report aggregates figures besides the totals.
+     */
+    public LoadGenerator interval(long interval, TimeUnit unit) {
+        this.intervalNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    /**
+     * @param concurrency the number of worker threads sending requests.
+     */
+    public LoadGenerator concurrency(int concurrency) {
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public LoadGenerator maxOutstanding(int maxOutstanding) {
+        this.maxOutstanding = maxOutstanding;
+        return this;
+    }
+
+    public LoadGenerator poisson(boolean poisson) {
+        this.poisson = poisson;
+        return this;
+    }
+
+    /**
+     * Issues the requests until the end of the duration, then waits for the outstanding ones.
+     */
+    public LoadReport run() throws InterruptedException {
+        if (operations.isEmpty()) {
+            throw new IllegalStateException("No operation to run");
+        }
+        LoadReport report = new LoadReport(names, durationNanos, intervalNanos);
+        Random random = new Random(seed);
+        int totalWeight = weights.stream().mapToInt(Integer::intValue).sum();
+        double meanGap = TimeUnit.SECONDS.toNanos(1) / rate;
+        AtomicInteger outstanding = new AtomicInteger();
+        Map<Long, Arrival> inFlight = new ConcurrentHashMap<>();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        try {
+            double offset = 0;
+            for (long sequence = 0;; sequence++) {
+                offset += poisson ? -Math.log(1 - random.nextDouble()) * meanGap : meanGap;
+                long sinceStart = (long) offset;
+                if (sinceStart >= durationNanos) {
+                    break;
+                }
+                int pick = pick(random.nextInt(totalWeight));
+                waitUntil(start + sinceStart);
+                if (outstanding.incrementAndGet() > maxOutstanding) {
+                    outstanding.decrementAndGet();
+                    report.rejection(names.get(pick), sinceStart);
+                    continue;
+                }
+                long arrival = sequence;
+                Arrival pending = new Arrival(names.get(pick), sinceStart);
+                inFlight.put(arrival, pending);
+                workers.execute(() -> {
+                    try {
+                        operations.get(pick).execute(arrival);
+                        if (inFlight.remove(arrival) != null) {
+                            report.success(pending.operation, sinceStart, System.nanoTime() - start - sinceStart);
+                        }
+                    } catch (Exception reason) {
+                        if (report.getOperation(pending.operation).getErrors() == 0) {
+                            log.warn("Request " + arrival + " of " + pending.operation + " failed", reason);
+                        }
+                        if (inFlight.remove(arrival) != null) {
+                            report.failure(pending.operation, sinceStart, System.nanoTime() - start - sinceStart,
+                                    reason);
+                        }
+                    } finally {
+                        outstanding.decrementAndGet();
+                    }
+                });
+            }
+        } finally {
+            workers.shutdown();
+        }
+        if (!workers.awaitTermination(Math.max(durationNanos, TimeUnit.MINUTES.toNanos(1)), TimeUnit.NANOSECONDS)) {
+            workers.shutdownNow();
+            log.warn("Requests still outstanding at the end of the run: " + inFlight.size());
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        // requests never completed are failures, whoever removes an arrival first reports it
+        for (Long arrival : new ArrayList<>(inFlight.keySet())) {
+            Arrival pending = inFlight.remove(arrival);
+            if (pending != null) {
+                report.failure(pending.operation, pending.sinceStart, report.elapsedNanos - pending.sinceStart,
+                        new TimeoutException("Request " + arrival + " still running at the end of the run"));
+            }
+        }
+        return report;
+    }
+
+    protected int pick(int draw) {
+        int cumulated = 0;
+        for (int i = 0; i < weights.size(); i++) {
+            cumulated += weights.get(i);
+            if (draw < cumulated) {
+                return i;
+            }
+        }
+        return weights.size() - 1;
+    }
+
+    protected static class Arrival {
+
+        protected final String operation;
+
+        protected final long sinceStart;
+
+        protected Arrival(String operation, long sinceStart) {
+            this.operation = operation;
+            this.sinceStart = sinceStart;
+        }
+    }
+
+    protected static void waitUntil(long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+}
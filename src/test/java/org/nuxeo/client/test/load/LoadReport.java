@@ -0,0 +1,212 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.load;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Outcome of a {@link LoadGenerator} run: per operation latencies and errors, and the same figures per interval of
+ * the run to follow a soak over time.
+ * <p>
+ * Latencies are measured from the scheduled arrival of each request, so that time spent waiting for a worker is
+ * accounted for when the server falls behind the target rate.
+ *
+ * @since 2.2
+ */
+public class LoadReport {
+
+    protected final Map<String, Stats> operations = new LinkedHashMap<>();
+
+    protected final List<Stats> intervals;
+
+    protected final long intervalNanos;
+
+    protected long elapsedNanos;
+
+    protected LoadReport(List<String> operationNames, long durationNanos, long intervalNanos) {
+        for (String name : operationNames) {
+            operations.put(name, new Stats());
+        }
+        int intervalCount = (int) Math.max(1, (durationNanos + intervalNanos - 1) / intervalNanos);
+        List<Stats> list = new ArrayList<>(intervalCount);
+        for (int i = 0; i < intervalCount; i++) {
+            list.add(new Stats());
+        }
+        this.intervals = Collections.unmodifiableList(list);
+        this.intervalNanos = intervalNanos;
+    }
+
+    protected void success(String operation, long sinceStart, long latency) {
+        operations.get(operation).success(latency);
+        intervalAt(sinceStart).success(latency);
+    }
+
+    protected void failure(String operation, long sinceStart, long latency, Throwable reason) {
+        operations.get(operation).failure(latency, reason);
+        intervalAt(sinceStart).failure(latency, reason);
+    }
+
+    protected void rejection(String operation, long sinceStart) {
+        operations.get(operation).rejection();
+        intervalAt(sinceStart).rejection();
+    }
+
+    protected Stats intervalAt(long sinceStart) {
+        return intervals.get((int) Math.min(sinceStart / intervalNanos, intervals.size() - 1));
+    }
+
+    public Map<String, Stats> getOperations() {
+        return Collections.unmodifiableMap(operations);
+    }
+
+    public Stats getOperation(String name) {
+        return operations.get(name);
+    }
+
+    /**
+     * @return the figures of each interval of the run, in order.
+     */
+    public List<Stats> getIntervals() {
+        return intervals;
+    }
+
+    public LatencyHistogram getLatencies() {
+        LatencyHistogram latencies = new LatencyHistogram();
+        for (Stats stats : operations.values()) {
+            latencies.add(stats.latencies);
+        }
+        return latencies;
+    }
+
+    public long getArrivals() {
+        return operations.values().stream().mapToLong(Stats::getArrivals).sum();
+    }
+
+    public long getErrors() {
+        return operations.values().stream().mapToLong(Stats::getErrors).sum();
+    }
+
+    public long getRejections() {
+        return operations.values().stream().mapToLong(Stats::getRejections).sum();
+    }
+
+    /**
+     * @return the failed and rejected requests over all arrivals.
+     */
+    public double getErrorRate() {
+        long arrivals = getArrivals();
+        return arrivals == 0 ? 0 : (double) (getErrors() + getRejections()) / arrivals;
+    }
+
+    /**
+     * @return the completed requests per second, until the last one completed.
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : getLatencies().getCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%d requests in %d ms, %.1f req/s, error rate %.4f", getArrivals(),
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos), getThroughput(), getErrorRate()));
+        for (Map.Entry<String, Stats> operation : operations.entrySet()) {
+            report.append(System.lineSeparator())
+                  .append("  ")
+                  .append(operation.getKey())
+                  .append(": ")
+                  .append(operation.getValue());
+        }
+        for (int i = 0; i < intervals.size(); i++) {
+            report.append(System.lineSeparator())
+                  .append("  @")
+                  .append(TimeUnit.NANOSECONDS.toMillis(i * intervalNanos))
+                  .append("ms: ")
+                  .append(intervals.get(i));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Latencies, error and rejection counts of an operation or an interval.
+     */
+    public static class Stats {
+
+        protected final LatencyHistogram latencies = new LatencyHistogram();
+
+        protected final AtomicLong errors = new AtomicLong();
+
+        protected final AtomicLong rejections = new AtomicLong();
+
+        protected final AtomicReference<Throwable> firstError = new AtomicReference<>();
+
+        protected void success(long latency) {
+            latencies.record(latency);
+        }
+
+        protected void failure(long latency, Throwable reason) {
+            latencies.record(latency);
+            errors.incrementAndGet();
+            firstError.compareAndSet(null, reason);
+        }
+
+        protected void rejection() {
+            rejections.incrementAndGet();
+        }
+
+        /**
+         * @return the latencies of the completed requests, failed ones included.
+         */
+        public LatencyHistogram getLatencies() {
+            return latencies;
+        }
+
+        public long getArrivals() {
+            return latencies.getCount() + rejections.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        /**
+         * @return the requests dropped because too many were outstanding.
+         */
+        public long getRejections() {
+            return rejections.get();
+        }
+
+        public Throwable getFirstError() {
+            return firstError.get();
+        }
+
+        @Override
+        public String toString() {
+            return latencies + " errors=" + errors.get() + " rejected=" + rejections.get();
+        }
+    }
+}
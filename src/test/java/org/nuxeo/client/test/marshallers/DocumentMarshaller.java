@@ -20,12 +20,15 @@ package org.nuxeo.client.test.marshallers;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 import org.nuxeo.client.api.marshaller.NuxeoMarshaller;
 import org.nuxeo.client.api.objects.Document;
+import org.nuxeo.client.test.objects.PropertyReader;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
@@ -36,6 +39,30 @@ import com.fasterxml.jackson.core.JsonToken;
  */
 public class DocumentMarshaller implements NuxeoMarshaller<Document> {
 
+    protected final Map<String, PropertyReader<?>> readers = new HashMap<>();
+
+    protected final Map<String, Function<Document, ? extends Document>> types = new HashMap<>();
+
+    /**
+     * Binds the given property straight to its Java type while parsing.
+     *
+     * @since 2.2
+     */
+    public DocumentMarshaller withReader(String xpath, PropertyReader<?> reader) {
+        readers.put(xpath, reader);
+        return this;
+    }
+
+    /**
+     * Adapts the documents of the given type once read, for instance to a {@link Document} sub class.
+     *
+     * @since 2.2
+     */
+    public DocumentMarshaller withType(String type, Function<Document, ? extends Document> adapter) {
+        types.put(type, adapter);
+        return this;
+    }
+
     @Override
     public Class<Document> getJavaType() {
         return Document.class;
@@ -43,10 +70,17 @@ public class DocumentMarshaller implements NuxeoMarshaller<Document> {
 
     @Override
     public Document read(JsonParser jp) throws IOException {
-        return readDocument(jp);
+        Document document = readDocument(jp, readers);
+        Function<Document, ? extends Document> adapter = types.get(document.getType());
+        return adapter == null ? document : adapter.apply(document);
     }
 
     protected static Document readDocument(JsonParser jp) throws IOException {
+        return readDocument(jp, Collections.emptyMap());
+    }
+
+    protected static Document readDocument(JsonParser jp, Map<String, PropertyReader<?>> readers)
+            throws IOException {
         String uid = null;
         String type = null;
         String path = null;
@@ -88,7 +122,7 @@ public class DocumentMarshaller implements NuxeoMarshaller<Document> {
             } else if ("repository".equals(key)) {
                 repository = jp.getText();
             } else if ("properties".equals(key)) {
-                readProperties(jp, properties);
+                readProperties(jp, properties, readers);
             } else if ("changeToken".equals(key)) {
                 changeToken = jp.getText();
             }
@@ -98,11 +132,19 @@ public class DocumentMarshaller implements NuxeoMarshaller<Document> {
     }
 
     protected static void readProperties(JsonParser jp, Map<String, Object> props) throws IOException {
+        readProperties(jp, props, Collections.emptyMap());
+    }
+
+    protected static void readProperties(JsonParser jp, Map<String, Object> props,
+            Map<String, PropertyReader<?>> readers) throws IOException {
         JsonToken tok = jp.nextToken();
         while (tok != null && tok != JsonToken.END_OBJECT) {
             String key = jp.getCurrentName();
             tok = jp.nextToken();
-            if (tok == JsonToken.START_ARRAY) {
+            PropertyReader<?> reader = readers.get(key);
+            if (reader != null) {
+                props.put(key, reader.read(jp));
+            } else if (tok == JsonToken.START_ARRAY) {
                 props.put(key, readArrayProperty(jp));
             } else if (tok == JsonToken.START_OBJECT) {
                 props.put(key, readObjectProperty(jp));
@@ -19,7 +19,8 @@ public class DataSet extends Document {
     public DataSet(Document document) {
         super(document);
         for (Object field : (List) document.getPropertyValue("ds:fields")) {
-            Field field1 = new Field(field);
+            // fields are already bound when read with a PropertyReader
+            Field field1 = field instanceof Field ? (Field) field : new Field(field);
             fields.add(field1);
         }
     }
@@ -18,9 +18,14 @@
  */
 package org.nuxeo.client.test.objects;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
 /**
  * @since 1.0
  */
@@ -49,12 +54,73 @@ public class Field {
     }
 
     public Field(Object field) {
-        this.fieldType = (String) ((Map)field).get("fieldType");
-        this.description = (String) ((Map)field).get("description");
-        this.columnName = (String) ((Map)field).get("columnName");
-        this.sqlTypeHint = (String) ((Map)field).get("sqlTypeHint");
-        this.name = (String) ((Map)field).get("name");
-        this.roles = (List<String>) ((Map)field).get("roles");
+        if (!(field instanceof Map)) {
+            throw new IllegalArgumentException("Not a field: " + field);
+        }
+        Map<?, ?> map = (Map<?, ?>) field;
+        this.fieldType = (String) map.get("fieldType");
+        this.description = (String) map.get("description");
+        this.columnName = (String) map.get("columnName");
+        this.sqlTypeHint = (String) map.get("sqlTypeHint");
+        this.name = (String) map.get("name");
+        Object roles = map.get("roles");
+        if (roles instanceof List) {
+            this.roles = new ArrayList<>();
+            for (Object role : (List<?>) roles) {
+                this.roles.add(role == null ? null : role.toString());
+            }
+        }
+    }
+
+    /**
+     * Reads a field from the JSON stream, without going through a map.
+     *
+     * @since 2.2
+     */
+    public static Field read(JsonParser jp) throws IOException {
+        if (jp.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        Field field = new Field(null, null, null, null, null, null);
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String key = jp.getCurrentName();
+            JsonToken tok = jp.nextToken();
+            switch (key) {
+            case "fieldType":
+                field.fieldType = jp.getValueAsString();
+                break;
+            case "description":
+                field.description = jp.getValueAsString();
+                break;
+            case "columnName":
+                field.columnName = jp.getValueAsString();
+                break;
+            case "sqlTypeHint":
+                field.sqlTypeHint = jp.getValueAsString();
+                break;
+            case "name":
+                field.name = jp.getValueAsString();
+                break;
+            case "roles":
+                if (tok == JsonToken.START_ARRAY) {
+                    field.roles = new ArrayList<>();
+                    while (jp.nextToken() != JsonToken.END_ARRAY) {
+                        if (jp.getCurrentToken().isStructStart()) {
+                            // not a role name
+                            jp.skipChildren();
+                        } else {
+                            field.roles.add(jp.getValueAsString());
+                        }
+                    }
+                } else {
+                    jp.skipChildren();
+                }
+                break;
+            default:
+                jp.skipChildren();
+            }
+        }
+        return field;
     }
 
     public String getFieldType() {
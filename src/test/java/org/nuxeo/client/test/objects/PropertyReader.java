@@ -0,0 +1,51 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.objects;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads a property value straight from the JSON stream into its Java type, the parser being on the first token of the
+ * value.
+ *
+ * @since 2.2
+ */
+@FunctionalInterface
+public interface PropertyReader<T> {
+
+    T read(JsonParser jp) throws IOException;
+
+    /**
+     * @return a reader of JSON arrays whose items are read by the given reader.
+     */
+    static <T> PropertyReader<List<T>> listOf(PropertyReader<T> itemReader) {
+        return jp -> {
+            if (jp.getCurrentToken() == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            List<T> list = new ArrayList<>();
+            while (jp.nextToken() != JsonToken.END_ARRAY) {
+                list.add(itemReader.read(jp));
+            }
+            return list;
+        };
+    }
+}
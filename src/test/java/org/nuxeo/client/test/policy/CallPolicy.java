@@ -0,0 +1,321 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.policy;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+
+/**
+ * Retry, hedging and circuit breaking around client calls, per endpoint.
+ * <p>
+ * {@link #read(String, Supplier)} is for calls without side effect: failed attempts are retried with an exponential
+ * backoff and full jitter. When {@link #hedging(boolean)} is enabled and enough latencies have been recorded, an
+ * attempt still running after the {@link #hedgePercentile(double)} latency is duplicated, the first answer winning.
+ * Hedging is off by default: duplicates stay within the {@link #hedgeBudget(double)} share of the reads and run on at
+ * most {@link #hedgeThreads(int)} threads, reads beyond that limit running unhedged in the calling thread.
+ * {@link #write(String, Supplier)} is never retried nor hedged. Both go through the circuit breaker of the endpoint,
+ * which rejects calls while the server keeps failing.
+ * <p>
+ * A failure is a call without response or answered with a 5xx status; other statuses are business answers and are
+ * returned to the caller untouched.
+ *
+ * @since 2.2
+ */
+public class CallPolicy implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 50;
+
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 2000;
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    public static final long DEFAULT_OPEN_SECONDS = 10;
+
+    public static final int LATENCY_WINDOW = 1000;
+
+    public static final int HEDGE_MIN_SAMPLES = 20;
+
+    public static final double DEFAULT_HEDGE_BUDGET = 0.1;
+
+    public static final int DEFAULT_HEDGE_THREADS = 16;
+
+    protected int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    protected long baseDelayMillis = DEFAULT_BASE_DELAY_MILLIS;
+
+    protected long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+
+    protected int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+
+    protected long openMillis = TimeUnit.SECONDS.toMillis(DEFAULT_OPEN_SECONDS);
+
+    protected double hedgePercentile = 95;
+
+    protected boolean hedging;
+
+    protected double hedgeBudget = DEFAULT_HEDGE_BUDGET;
+
+    protected final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    protected final ConcurrentHashMap<String, LatencyTracker> latencies = new ConcurrentHashMap<>();
+
+    protected final AtomicInteger hedges = new AtomicInteger();
+
+    protected final AtomicInteger hedgeableReads = new AtomicInteger();
+
+    /**
+     * Without queue: a call which finds every thread busy is rejected and runs unhedged instead of waiting.
+     */
+    protected final ThreadPoolExecutor executor = new ThreadPoolExecutor(0, DEFAULT_HEDGE_THREADS, 60,
+            TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "nuxeo-client-hedge");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    public CallPolicy maxAttempts(int maxAttempts) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("Max attempts must be positive: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public CallPolicy backoff(long baseDelay, long maxDelay, TimeUnit unit) {
+        this.baseDelayMillis = unit.toMillis(baseDelay);
+        this.maxDelayMillis = unit.toMillis(maxDelay);
+        return this;
+    }
+
+    public CallPolicy circuitBreaker(int failureThreshold, long openDuration, TimeUnit unit) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = unit.toMillis(openDuration);
+        breakers.clear();
+        return this;
+    }
+
+    public CallPolicy hedgePercentile(double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+        return this;
+    }
+
+    public CallPolicy hedging(boolean hedging) {
+        this.hedging = hedging;
+        return this;
+    }
+
+    /**
+     * @param hedgeBudget the maximum number of duplicated calls, as a share of the hedgeable reads.
+     */
+    public CallPolicy hedgeBudget(double hedgeBudget) {
+        this.hedgeBudget = hedgeBudget;
+        return this;
+    }
+
+    /**
+     * @param hedgeThreads the maximum number of threads running hedged calls, primary and duplicate attempts included.
+     */
+    public CallPolicy hedgeThreads(int hedgeThreads) {
+        if (hedgeThreads <= 0) {
+            throw new IllegalArgumentException("Hedge threads must be positive: " + hedgeThreads);
+        }
+        executor.setMaximumPoolSize(hedgeThreads);
+        return this;
+    }
+
+    public CircuitBreaker getCircuitBreaker(String endpoint) {
+        return breakers.computeIfAbsent(endpoint,
+                key -> new CircuitBreaker(failureThreshold, openMillis, TimeUnit.MILLISECONDS));
+    }
+
+    public LatencyTracker getLatencyTracker(String endpoint) {
+        return latencies.computeIfAbsent(endpoint, key -> new LatencyTracker(LATENCY_WINDOW));
+    }
+
+    /**
+     * @return the number of duplicated calls sent so far.
+     */
+    public int getHedges() {
+        return hedges.get();
+    }
+
+    public <T> T read(String endpoint, Supplier<T> call) {
+        NuxeoClientException failure = null;
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            if (attempt > 0) {
+                backoff(attempt);
+            }
+            try {
+                return hedging ? hedged(endpoint, call) : guarded(endpoint, call);
+            } catch (NuxeoClientException reason) {
+                if (!isFailure(reason) || isRejected(endpoint)) {
+                    throw reason;
+                }
+                failure = reason;
+            }
+        }
+        throw failure;
+    }
+
+    public <T> T write(String endpoint, Supplier<T> call) {
+        return guarded(endpoint, call);
+    }
+
+    /**
+     * Runs the call through the circuit breaker, recording its latency.
+     */
+    protected <T> T guarded(String endpoint, Supplier<T> call) {
+        CircuitBreaker breaker = getCircuitBreaker(endpoint);
+        breaker.acquire(endpoint);
+        long start = System.nanoTime();
+        try {
+            T result = call.get();
+            getLatencyTracker(endpoint).record(System.nanoTime() - start);
+            breaker.onSuccess();
+            return result;
+        } catch (NuxeoClientException reason) {
+            if (isFailure(reason)) {
+                breaker.onFailure();
+            } else {
+                getLatencyTracker(endpoint).record(System.nanoTime() - start);
+                breaker.onSuccess();
+            }
+            throw reason;
+        }
+    }
+
+    protected <T> T hedged(String endpoint, Supplier<T> call) {
+        int reads = hedgeableReads.incrementAndGet();
+        LatencyTracker tracker = getLatencyTracker(endpoint);
+        if (tracker.getCount() < HEDGE_MIN_SAMPLES) {
+            return guarded(endpoint, call);
+        }
+        long hedgeDelay = tracker.getPercentile(hedgePercentile);
+        CompletableFuture<T> primary;
+        try {
+            primary = CompletableFuture.supplyAsync(() -> guarded(endpoint, call), executor);
+        } catch (RejectedExecutionException busy) {
+            return guarded(endpoint, call);
+        }
+        try {
+            return primary.get(hedgeDelay, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException timeout) {
+            if (!acquireHedge(reads)) {
+                return await(primary);
+            }
+            CompletableFuture<T> secondary;
+            try {
+                secondary = CompletableFuture.supplyAsync(() -> guarded(endpoint, call), executor);
+            } catch (RejectedExecutionException busy) {
+                hedges.decrementAndGet();
+                return await(primary);
+            }
+            return await(firstSuccessful(primary, secondary));
+        } catch (InterruptedException reason) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoClientException(reason);
+        } catch (ExecutionException reason) {
+            return await(primary);
+        }
+    }
+
+    /**
+     * @return whether a duplicated call fits in the budget, counting it if so.
+     */
+    protected boolean acquireHedge(int reads) {
+        int current;
+        do {
+            current = hedges.get();
+            if (current + 1 > hedgeBudget * reads) {
+                return false;
+            }
+        } while (!hedges.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    protected static <T> CompletableFuture<T> firstSuccessful(CompletableFuture<T> first,
+            CompletableFuture<T> second) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(2);
+        for (CompletableFuture<T> future : Arrays.asList(first, second)) {
+            future.whenComplete((value, error) -> {
+                if (error == null) {
+                    result.complete(value);
+                } else if (remaining.decrementAndGet() == 0) {
+                    result.completeExceptionally(error);
+                }
+            });
+        }
+        return result;
+    }
+
+    protected static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException reason) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoClientException(reason);
+        } catch (ExecutionException reason) {
+            Throwable cause = reason.getCause();
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new NuxeoClientException(cause);
+        }
+    }
+
+    protected void backoff(int attempt) {
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt, 20));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException reason) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoClientException(reason);
+        }
+    }
+
+    protected boolean isRejected(String endpoint) {
+        return getCircuitBreaker(endpoint).getState() == CircuitBreaker.State.OPEN;
+    }
+
+    protected static boolean isFailure(NuxeoClientException reason) {
+        return reason.getStatus() <= 0 || reason.getStatus() >= 500;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.policy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+
+/**
+ * Stops sending calls to an endpoint after consecutive server failures.
+ * <p>
+ * After {@code failureThreshold} consecutive failures the circuit opens and calls are rejected without reaching the
+ * server. Once the open duration has elapsed a single trial call is let through: its success closes the circuit, its
+ * failure opens it again.
+ *
+ * @since 2.2
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    protected final int failureThreshold;
+
+    protected final long openNanos;
+
+    protected State state = State.CLOSED;
+
+    protected int failures;
+
+    protected long openedAt;
+
+    protected boolean trialInFlight;
+
+    public CircuitBreaker(int failureThreshold, long openDuration, TimeUnit unit) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("Failure threshold must be positive: " + failureThreshold);
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = unit.toNanos(openDuration);
+    }
+
+    /**
+     * @throws NuxeoClientException if the circuit is open.
+     */
+    public synchronized void acquire(String endpoint) {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                throw new NuxeoClientException("Circuit open for " + endpoint);
+            }
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) {
+                throw new NuxeoClientException("Circuit half open for " + endpoint + ", trial call in progress");
+            }
+            trialInFlight = true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        failures = 0;
+        trialInFlight = false;
+        state = State.CLOSED;
+    }
+
+    public synchronized void onFailure() {
+        trialInFlight = false;
+        if (state == State.HALF_OPEN || ++failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.policy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+
+/**
+ * Rate limits and concurrency bulkheads per class of operation, so that bulk traffic sharing a client cannot starve
+ * interactive calls.
+ * <p>
+ * Classes are free form keys; {@link #READ}, {@link #WRITE}, {@link #UPLOAD} and {@link #automation(String)} cover the
+ * usual ones. A class without configured limit is not limited. A call which cannot get a token or a bulkhead slot
+ * within {@link #maxWait(long, TimeUnit)} fails without reaching the server.
+ *
+ * @since 2.2
+ */
+public class OperationLimiter {
+
+    public static final String READ = "read";
+
+    public static final String WRITE = "write";
+
+    public static final String UPLOAD = "upload";
+
+    public static final long DEFAULT_MAX_WAIT_SECONDS = 30;
+
+    protected final Map<String, TokenBucket> rateLimits = new ConcurrentHashMap<>();
+
+    protected final Map<String, Semaphore> bulkheads = new ConcurrentHashMap<>();
+
+    protected long maxWaitNanos = TimeUnit.SECONDS.toNanos(DEFAULT_MAX_WAIT_SECONDS);
+
+    public static String automation(String operationId) {
+        return "automation:" + operationId;
+    }
+
+    public OperationLimiter rateLimit(String operationClass, double permitsPerSecond, int burst) {
+        rateLimits.put(operationClass, new TokenBucket(permitsPerSecond, burst));
+        return this;
+    }
+
+    public OperationLimiter bulkhead(String operationClass, int maxConcurrentCalls) {
+        bulkheads.put(operationClass, new Semaphore(maxConcurrentCalls, true));
+        return this;
+    }
+
+    public OperationLimiter maxWait(long maxWait, TimeUnit unit) {
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        return this;
+    }
+
+    public <T> T execute(String operationClass, Supplier<T> call) {
+        long deadline = System.nanoTime() + maxWaitNanos;
+        Semaphore bulkhead = bulkheads.get(operationClass);
+        TokenBucket rateLimit = rateLimits.get(operationClass);
+        try {
+            if (bulkhead != null && !bulkhead.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                throw new NuxeoClientException("Too many concurrent " + operationClass + " calls");
+            }
+            try {
+                if (rateLimit != null && !rateLimit.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    throw new NuxeoClientException("Rate limit exceeded for " + operationClass + " calls");
+                }
+                return call.get();
+            } finally {
+                if (bulkhead != null) {
+                    bulkhead.release();
+                }
+            }
+        } catch (InterruptedException reason) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoClientException(reason);
+        }
+    }
+
+    public void run(String operationClass, Runnable call) {
+        execute(operationClass, () -> {
+            call.run();
+            return null;
+        });
+    }
+}
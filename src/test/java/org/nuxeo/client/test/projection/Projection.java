@@ -0,0 +1,242 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.projection;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Response;
+
+import org.nuxeo.client.api.ConstantsV1;
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.Document;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Fetches and queries documents returning only the selected properties.
+ * <p>
+ * The REST API selects whole schemas, so the projection goes through an NXQL {@code SELECT} of the properties with the
+ * {@value #OPERATION} operation: the server only sends these columns and the client only parses them. The returned
+ * documents hold their uid, type, path, title when {@code dc:title} is selected, and the selected properties.
+ * <p>
+ * A list property is selected with a trailing wildcard, for instance {@code dc:subjects/*}, and returned as a list
+ * under its name without the wildcard. NXQL returns one row per value of such a column, so rows are regrouped by
+ * document: each list gathers the distinct values of its rows, in order, the cross product of several list columns
+ * repeating them. For the same reason, page sizes count rows rather than documents when lists are selected. A complex
+ * property cannot be selected as a whole: select its scalar sub-properties, such as {@code file:content/name}.
+ *
+ * @since 2.2
+ */
+public class Projection {
+
+    public static final String OPERATION = "Repository.ResultSetQuery";
+
+    protected static final String[] SYSTEM_COLUMNS = { "ecm:uuid", "ecm:primaryType", "ecm:path" };
+
+    protected static final ObjectMapper MAPPER = new ObjectMapper();
+
+    protected final NuxeoClient nuxeoClient;
+
+    protected final String baseURL;
+
+    protected final List<String> properties = new ArrayList<>();
+
+    protected int pageSize;
+
+    protected int currentPageIndex;
+
+    protected long lastPayloadBytes;
+
+    public Projection(NuxeoClient nuxeoClient, String baseURL) {
+        this.nuxeoClient = nuxeoClient;
+        this.baseURL = baseURL;
+    }
+
+    public Projection properties(String... xpaths) {
+        for (String xpath : xpaths) {
+            if (xpath.endsWith("/")) {
+                throw new IllegalArgumentException("Invalid property: " + xpath);
+            }
+        }
+        properties.addAll(Arrays.asList(xpaths));
+        return this;
+    }
+
+    public Projection page(int pageSize, int currentPageIndex) {
+        this.pageSize = pageSize;
+        this.currentPageIndex = currentPageIndex;
+        return this;
+    }
+
+    public Document fetchDocumentByPath(String path) {
+        return fetchOne("ecm:path = " + quote(path), path);
+    }
+
+    public Document fetchDocumentById(String docId) {
+        return fetchOne("ecm:uuid = " + quote(docId), docId);
+    }
+
+    protected Document fetchOne(String clause, String ref) {
+        List<Document> documents = query("FROM Document WHERE " + clause);
+        if (documents.isEmpty()) {
+            throw new NuxeoClientException("Document not found: " + ref);
+        }
+        return documents.get(0);
+    }
+
+    /**
+     * @param fromClause the query without its select clause, for instance {@code FROM Note WHERE ...}.
+     */
+    public List<Document> query(String fromClause) {
+        StringBuilder select = new StringBuilder("SELECT ");
+        select.append(String.join(", ", SYSTEM_COLUMNS));
+        for (String property : properties) {
+            select.append(", ").append(property);
+        }
+        select.append(' ').append(fromClause);
+        Map<String, Object> params = new HashMap<>();
+        params.put("query", select.toString());
+        if (pageSize > 0) {
+            params.put("pageSize", pageSize);
+            params.put("currentPageIndex", currentPageIndex);
+        }
+        Map<String, Object> body = new HashMap<>();
+        body.put("params", params);
+        Response response;
+        try {
+            response = nuxeoClient.post(baseURL + ConstantsV1.API_PATH + "automation/" + OPERATION,
+                    MAPPER.writeValueAsString(body));
+        } catch (IOException reason) {
+            throw new NuxeoClientException(reason);
+        }
+        try {
+            byte[] payload = response.body().bytes();
+            lastPayloadBytes = payload.length;
+            if (!response.isSuccessful()) {
+                throw nuxeoClient.getConverterFactory().readJSON(new String(payload, StandardCharsets.UTF_8),
+                        NuxeoClientException.class);
+            }
+            return readEntries(payload);
+        } catch (IOException reason) {
+            throw new NuxeoClientException(reason);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * @return the size of the last query response body.
+     */
+    public long getLastPayloadBytes() {
+        return lastPayloadBytes;
+    }
+
+    /**
+     * @return the documents of the rows, one per uid.
+     */
+    protected List<Document> readEntries(byte[] payload) throws IOException {
+        Map<String, Document> documents = new LinkedHashMap<>();
+        try (JsonParser jp = MAPPER.getFactory().createParser(new ByteArrayInputStream(payload))) {
+            jp.nextToken();
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                String field = jp.getCurrentName();
+                if (jp.nextToken() == JsonToken.START_ARRAY && "entries".equals(field)) {
+                    while (jp.nextToken() == JsonToken.START_OBJECT) {
+                        Map<String, Object> row = readRow(jp);
+                        String uid = (String) row.get("ecm:uuid");
+                        Document document = documents.get(uid);
+                        if (document == null) {
+                            documents.put(uid, toDocument(row));
+                        } else {
+                            addListValues(document, row);
+                        }
+                    }
+                } else {
+                    jp.skipChildren();
+                }
+            }
+        }
+        return new ArrayList<>(documents.values());
+    }
+
+    protected Map<String, Object> readRow(JsonParser jp) throws IOException {
+        Map<String, Object> row = new LinkedHashMap<>();
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String column = jp.getCurrentName();
+            jp.nextToken();
+            row.put(column, MAPPER.readValue(jp, Object.class));
+        }
+        return row;
+    }
+
+    protected Document toDocument(Map<String, Object> row) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (String xpath : properties) {
+            if (isList(xpath)) {
+                values.put(listName(xpath), new ArrayList<>());
+            } else {
+                values.put(xpath, row.get(xpath));
+            }
+        }
+        String uid = (String) row.get("ecm:uuid");
+        String type = (String) row.get("ecm:primaryType");
+        String path = (String) row.get("ecm:path");
+        Document document = new Document(uid, type, null, null, path, null, null, null, null, null, null, values,
+                null);
+        Object title = values.get("dc:title");
+        if (title != null) {
+            document.setTitle(title.toString());
+        }
+        addListValues(document, row);
+        return document;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void addListValues(Document document, Map<String, Object> row) {
+        for (String xpath : properties) {
+            Object value = row.get(xpath);
+            if (isList(xpath) && value != null) {
+                List<Object> values = (List<Object>) document.getProperties().get(listName(xpath));
+                if (!values.contains(value)) {
+                    values.add(value);
+                }
+            }
+        }
+    }
+
+    protected static boolean isList(String xpath) {
+        return xpath.endsWith("/*");
+    }
+
+    protected static String listName(String xpath) {
+        return xpath.substring(0, xpath.length() - 2);
+    }
+
+    protected static String quote(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.query;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import okhttp3.HttpUrl;
+import okhttp3.Response;
+
+import org.nuxeo.client.api.ConstantsV1;
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.Document;
+import org.nuxeo.client.api.objects.Documents;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+
+/**
+ * Runs the same NXQL query on several repositories in parallel and merges the results by a sort key.
+ * <p>
+ * Each repository is queried page by page, sorted by the server on the sort key; the first pages are requested at
+ * once and the next page of a repository is requested as soon as its current page starts being consumed. The pages are
+ * merged with a k-way merge on {@link #comparator(Comparator)}, which must agree with the server ordering. It defaults
+ * to {@link #compareValues(Object, Object)} on the value of the sort key: numbers are compared by value and calendars
+ * by time, other values which are not strings require an explicit comparator. Latency and volume are recorded per
+ * repository.
+ *
+ * @since 2.2
+ */
+public class FanOutQuery implements Iterable<Document>, AutoCloseable {
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    protected final NuxeoClient nuxeoClient;
+
+    protected final String baseURL;
+
+    protected final List<String> repositories;
+
+    protected final Map<String, Metrics> metrics = new LinkedHashMap<>();
+
+    protected final ExecutorService executor;
+
+    protected String query;
+
+    protected String sortBy;
+
+    protected boolean ascending = true;
+
+    protected int pageSize = DEFAULT_PAGE_SIZE;
+
+    protected Comparator<Document> comparator;
+
+    public FanOutQuery(NuxeoClient nuxeoClient, String baseURL, List<String> repositories) {
+        this.nuxeoClient = nuxeoClient;
+        this.baseURL = baseURL;
+        this.repositories = new ArrayList<>(repositories);
+        for (String repository : repositories) {
+            metrics.put(repository, new Metrics());
+        }
+        this.executor = Executors.newFixedThreadPool(Math.max(1, repositories.size()), runnable -> {
+            Thread thread = new Thread(runnable, "nuxeo-client-fan-out");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public FanOutQuery query(String query) {
+        this.query = query;
+        return this;
+    }
+
+    public FanOutQuery sortBy(String sortBy, boolean ascending) {
+        this.sortBy = sortBy;
+        this.ascending = ascending;
+        return this;
+    }
+
+    public FanOutQuery pageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Orders the documents of different repositories, by default on the value of the sort key, see
+     * {@link #compareValues(Object, Object)}.
+     */
+    public FanOutQuery comparator(Comparator<Document> comparator) {
+        this.comparator = comparator;
+        return this;
+    }
+
+    public Map<String, Metrics> getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public Iterator<Document> iterator() {
+        if (query == null || sortBy == null) {
+            throw new IllegalStateException("Query and sort key are required");
+        }
+        Comparator<Document> order = comparator != null ? comparator
+                : Comparator.comparing((Document document) -> document.getPropertyValue(sortBy),
+                        Comparator.nullsLast(FanOutQuery::compareValues));
+        if (!ascending && comparator == null) {
+            order = order.reversed();
+        }
+        Comparator<Cursor> byHead = Comparator.comparing(cursor -> cursor.head(), order);
+        List<Cursor> cursors = new ArrayList<>();
+        for (String repository : repositories) {
+            cursors.add(new Cursor(repository));
+        }
+        PriorityQueue<Cursor> heads = new PriorityQueue<>(Math.max(1, cursors.size()), byHead);
+        for (Cursor cursor : cursors) {
+            if (cursor.hasNext()) {
+                heads.add(cursor);
+            }
+        }
+        return new Iterator<Document>() {
+
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public Document next() {
+                Cursor cursor = heads.poll();
+                if (cursor == null) {
+                    throw new NoSuchElementException();
+                }
+                Document document = cursor.next();
+                if (cursor.hasNext()) {
+                    heads.add(cursor);
+                }
+                return document;
+            }
+        };
+    }
+
+    public Stream<Document> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED), false);
+    }
+
+    /**
+     * Compares two non null sort key values: numbers by value, whatever their type, calendars by time, and strings or
+     * booleans naturally.
+     *
+     * @throws IllegalArgumentException when the values are of other or different types, which need an explicit
+     *             {@link #comparator(Comparator)}.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static int compareValues(Object first, Object second) {
+        if (first instanceof Number && second instanceof Number) {
+            return toBigDecimal((Number) first).compareTo(toBigDecimal((Number) second));
+        } else if (first instanceof Calendar && second instanceof Calendar) {
+            return ((Calendar) first).compareTo((Calendar) second);
+        } else if ((first instanceof String || first instanceof Boolean) && first.getClass() == second.getClass()) {
+            return ((Comparable) first).compareTo(second);
+        }
+        throw new IllegalArgumentException(String.format("Cannot order %s and %s values, set a comparator",
+                first.getClass().getName(), second.getClass().getName()));
+    }
+
+    protected static BigDecimal toBigDecimal(Number number) {
+        if (number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        } else if (number instanceof BigInteger) {
+            return new BigDecimal((BigInteger) number);
+        } else if (number instanceof Double || number instanceof Float) {
+            return BigDecimal.valueOf(number.doubleValue());
+        }
+        return BigDecimal.valueOf(number.longValue());
+    }
+
+    protected CompletableFuture<Documents> fetchPage(String repository, int pageIndex) {
+        return CompletableFuture.supplyAsync(() -> {
+            String url = HttpUrl.parse(baseURL + ConstantsV1.API_PATH + "repo/" + repository + "/query")
+                                .newBuilder()
+                                .addQueryParameter("query", query)
+                                .addQueryParameter("pageSize", String.valueOf(pageSize))
+                                .addQueryParameter("currentPageIndex", String.valueOf(pageIndex))
+                                .addQueryParameter("sortBy", sortBy)
+                                .addQueryParameter("sortOrder", ascending ? "ASC" : "DESC")
+                                .build()
+                                .toString();
+            long start = System.nanoTime();
+            Response response = nuxeoClient.get(url);
+            try {
+                String json = response.body().string();
+                if (!response.isSuccessful()) {
+                    throw nuxeoClient.getConverterFactory().readJSON(json, NuxeoClientException.class);
+                }
+                Documents documents = nuxeoClient.getConverterFactory().readJSON(json, Documents.class);
+                metrics.get(repository).record(System.nanoTime() - start, documents.getDocuments().size());
+                return documents;
+            } catch (IOException reason) {
+                throw new NuxeoClientException(reason);
+            } finally {
+                response.close();
+            }
+        }, executor);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Position in the pages of one repository, with the next page requested ahead.
+     */
+    protected class Cursor {
+
+        protected final String repository;
+
+        protected int pageIndex;
+
+        protected CompletableFuture<Documents> nextPage;
+
+        protected List<Document> page;
+
+        protected int position;
+
+        protected Cursor(String repository) {
+            this.repository = repository;
+            this.nextPage = fetchPage(repository, 0);
+        }
+
+        protected boolean hasNext() {
+            if (page != null && position < page.size()) {
+                return true;
+            }
+            if (nextPage == null) {
+                return false;
+            }
+            Documents documents = await(nextPage);
+            page = documents.getDocuments() == null ? Collections.emptyList() : documents.getDocuments();
+            position = 0;
+            pageIndex++;
+            nextPage = documents.isNextPageAvailable() && !page.isEmpty() ? fetchPage(repository, pageIndex) : null;
+            return !page.isEmpty();
+        }
+
+        protected Document head() {
+            return page.get(position);
+        }
+
+        protected Document next() {
+            return page.get(position++);
+        }
+    }
+
+    protected static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException reason) {
+            if (reason.getCause() instanceof NuxeoClientException) {
+                throw (NuxeoClientException) reason.getCause();
+            }
+            throw new NuxeoClientException(reason.getCause());
+        }
+    }
+
+    /**
+     * Requests, documents and latency of one repository.
+     */
+    public static class Metrics {
+
+        protected final AtomicLong requests = new AtomicLong();
+
+        protected final AtomicLong documents = new AtomicLong();
+
+        protected final AtomicLong totalNanos = new AtomicLong();
+
+        protected final AtomicLong maxNanos = new AtomicLong();
+
+        protected void record(long nanos, int count) {
+            requests.incrementAndGet();
+            documents.addAndGet(count);
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        public long getDocuments() {
+            return documents.get();
+        }
+
+        public long getMeanLatencyMillis() {
+            long count = requests.get();
+            return count == 0 ? 0 : totalNanos.get() / count / 1000000;
+        }
+
+        public long getMaxLatencyMillis() {
+            return maxNanos.get() / 1000000;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests, %d documents, mean %d ms, max %d ms", getRequests(), getDocuments(),
+                    getMeanLatencyMillis(), getMaxLatencyMillis());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.stream;
+
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+
+/**
+ * Error response of a {@link StreamingClient} call, carrying its HTTP status so that callers tell server answers from
+ * calls which got no response.
+ *
+ * @since 2.2
+ */
+public class ResponseException extends NuxeoClientException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ResponseException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+}
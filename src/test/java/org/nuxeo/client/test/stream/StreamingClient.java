@@ -0,0 +1,250 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+
+import org.nuxeo.client.api.ConstantsV1;
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Raw REST calls with streamed bodies, for proxies relaying Nuxeo payloads.
+ * <p>
+ * Unlike {@code NuxeoClient#get(String)} and {@code NuxeoClient#put(String, String)}, request bodies are
+ * {@link InputStream} or {@link ByteBuffer} copied to the socket through pooled buffers, and responses are read as
+ * streams: {@link #readJSON(InputStream, Class)} parses straight from the socket instead of decoding the payload to a
+ * {@link String} first, with the converter factory of the client so that its registered marshallers apply. Paths are
+ * relative to the REST API root. Error responses are thrown as {@link ResponseException} holding their status.
+ *
+ * @since 2.2
+ */
+public class StreamingClient {
+
+    public static final MediaType JSON = MediaType.parse("application/json");
+
+    protected final String baseURL;
+
+    protected final OkHttpClient client;
+
+    protected static final ObjectMapper MAPPER = new ObjectMapper();
+
+    protected final NuxeoClient nuxeoClient;
+
+    protected final BufferPool buffers = new BufferPool();
+
+    protected final Map<String, String> headers = new ConcurrentHashMap<>();
+
+    /**
+     * @param nuxeoClient the client whose converter factory, and the marshallers registered on it, read the responses.
+     */
+    public StreamingClient(NuxeoClient nuxeoClient, String baseURL, Interceptor authentication) {
+        this.nuxeoClient = nuxeoClient;
+        this.baseURL = baseURL;
+        this.client = new OkHttpClient.Builder().addInterceptor(authentication).build();
+    }
+
+    /**
+     * Adds a header to every request, for instance {@code X-NXproperties}.
+     */
+    public StreamingClient header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    public Response get(String path) {
+        return execute(request(path).get().build());
+    }
+
+    public Response put(String path, InputStream body, MediaType contentType) {
+        return execute(request(path).put(streamBody(body, contentType)).build());
+    }
+
+    public Response put(String path, ByteBuffer body, MediaType contentType) {
+        return execute(request(path).put(bufferBody(body, contentType)).build());
+    }
+
+    public Response post(String path, InputStream body, MediaType contentType) {
+        return execute(request(path).post(streamBody(body, contentType)).build());
+    }
+
+    public Response post(String path, ByteBuffer body, MediaType contentType) {
+        return execute(request(path).post(bufferBody(body, contentType)).build());
+    }
+
+    /**
+     * @return the response body stream, to close once read.
+     */
+    public InputStream openStream(String path) {
+        Response response = get(path);
+        if (!response.isSuccessful()) {
+            throw failure(response);
+        }
+        return response.body().byteStream();
+    }
+
+    public <T> T fetchJSON(String path, Class<T> type) {
+        try (InputStream in = openStream(path)) {
+            return readJSON(in, type);
+        } catch (IOException reason) {
+            throw new NuxeoClientException(reason);
+        }
+    }
+
+    /**
+     * Parses the stream as it is read, through the client converter factory.
+     */
+    public <T> T readJSON(InputStream in, Class<T> type) {
+        return nuxeoClient.getConverterFactory().readJSON(new InputStreamReader(in, StandardCharsets.UTF_8), type);
+    }
+
+    /**
+     * Relays the response body of the given path to the output.
+     *
+     * @return the number of bytes relayed.
+     */
+    public long transfer(String path, OutputStream out) {
+        try (InputStream in = openStream(path)) {
+            return buffers.copy(in, out);
+        } catch (IOException reason) {
+            throw new NuxeoClientException(reason);
+        }
+    }
+
+    public BufferPool getBufferPool() {
+        return buffers;
+    }
+
+    protected Request.Builder request(String path) {
+        Request.Builder request = new Request.Builder().url(baseURL + ConstantsV1.API_PATH + path);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            request.header(header.getKey(), header.getValue());
+        }
+        return request;
+    }
+
+    protected Response execute(Request request) {
+        try {
+            return client.newCall(request).execute();
+        } catch (IOException reason) {
+            throw new NuxeoClientException(reason);
+        }
+    }
+
+    /**
+     * @return the error of the response, with its status and the message of the server error body when there is one.
+     */
+    protected NuxeoClientException failure(Response response) {
+        String body;
+        try {
+            body = response.body().string();
+        } catch (IOException reason) {
+            body = "";
+        } finally {
+            response.close();
+        }
+        String message = "Status " + response.code() + (body.isEmpty() ? "" : ": " + body);
+        try {
+            message = body.isEmpty() ? message : MAPPER.readTree(body).path("message").asText(message);
+        } catch (IOException reason) {
+            // not a JSON error body, keep it in the message
+        }
+        return new ResponseException(response.code(), message);
+    }
+
+    /**
+     * The stream can only be read once: when OkHttp sends the request again, after a connection failure, a redirect or
+     * an authentication challenge, the call fails instead of sending a truncated body.
+     */
+    protected RequestBody streamBody(InputStream body, MediaType contentType) {
+        AtomicBoolean sent = new AtomicBoolean();
+        return new RequestBody() {
+
+            @Override
+            public MediaType contentType() {
+                return contentType;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                if (!sent.compareAndSet(false, true)) {
+                    throw new IOException("Streamed request body cannot be sent twice");
+                }
+                byte[] buffer = buffers.acquire();
+                try {
+                    int read;
+                    while ((read = body.read(buffer)) >= 0) {
+                        sink.write(buffer, 0, read);
+                    }
+                } finally {
+                    buffers.release(buffer);
+                }
+            }
+        };
+    }
+
+    protected RequestBody bufferBody(ByteBuffer body, MediaType contentType) {
+        return new RequestBody() {
+
+            @Override
+            public MediaType contentType() {
+                return contentType;
+            }
+
+            @Override
+            public long contentLength() {
+                return body.remaining();
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                ByteBuffer source = body.duplicate();
+                if (source.hasArray()) {
+                    sink.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+                    return;
+                }
+                byte[] buffer = buffers.acquire();
+                try {
+                    while (source.hasRemaining()) {
+                        int length = Math.min(buffer.length, source.remaining());
+                        source.get(buffer, 0, length);
+                        sink.write(buffer, 0, length);
+                    }
+                } finally {
+                    buffers.release(buffer);
+                }
+            }
+        };
+    }
+}
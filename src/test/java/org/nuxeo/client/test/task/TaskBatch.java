@@ -0,0 +1,64 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.task;
+
+import java.util.Collection;
+
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.task.TaskCompletionRequest;
+import org.nuxeo.client.api.objects.task.TaskManager;
+import org.nuxeo.client.test.batch.BatchReport;
+import org.nuxeo.client.test.batch.BatchRunner;
+
+/**
+ * Completes, reassigns or delegates many tasks at once.
+ * <p>
+ * The task endpoint only handles one task per request, so calls are sent concurrently through a {@link BatchRunner}
+ * rather than one after the other; a failing task does not stop the others and is reported with its id.
+ *
+ * @since 2.2
+ */
+public class TaskBatch {
+
+    protected final NuxeoClient nuxeoClient;
+
+    protected final BatchRunner runner;
+
+    public TaskBatch(NuxeoClient nuxeoClient) {
+        this(nuxeoClient, new BatchRunner());
+    }
+
+    public TaskBatch(NuxeoClient nuxeoClient, BatchRunner runner) {
+        this.nuxeoClient = nuxeoClient;
+        this.runner = runner;
+    }
+
+    public BatchReport<String> complete(Collection<String> taskIds, String action,
+            TaskCompletionRequest taskCompletionRequest) {
+        TaskManager taskManager = nuxeoClient.getTaskManager();
+        return runner.run(taskIds, taskId -> taskManager.complete(taskId, action, taskCompletionRequest));
+    }
+
+    public BatchReport<String> reassign(Collection<String> taskIds, String actors, String comment) {
+        TaskManager taskManager = nuxeoClient.getTaskManager();
+        return runner.run(taskIds, taskId -> taskManager.reassign(taskId, actors, comment));
+    }
+
+    public BatchReport<String> delegate(Collection<String> taskIds, String actors, String comment) {
+        TaskManager taskManager = nuxeoClient.getTaskManager();
+        return runner.run(taskIds, taskId -> taskManager.delegate(taskId, actors, comment));
+    }
+}
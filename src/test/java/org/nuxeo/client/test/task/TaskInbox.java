@@ -0,0 +1,186 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.task;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import okhttp3.HttpUrl;
+import okhttp3.Response;
+
+import org.nuxeo.client.api.ConstantsV1;
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.task.Task;
+import org.nuxeo.client.api.objects.task.TaskManager;
+import org.nuxeo.client.api.objects.task.Tasks;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Paged access to the task inbox, as an alternative to {@link TaskManager#fetchTasks(String, String, String)} which
+ * returns every task at once.
+ * <p>
+ * Pages are fetched from the {@code task} endpoint only when the previous one has been consumed, until the server
+ * reports no next page or returns an empty page.
+ *
+ * @since 2.2
+ */
+public class TaskInbox implements Iterable<Task> {
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    protected static final ObjectMapper MAPPER = new ObjectMapper();
+
+    protected final NuxeoClient nuxeoClient;
+
+    protected final String baseURL;
+
+    protected String userId;
+
+    protected String workflowInstanceId;
+
+    protected String workflowModelName;
+
+    protected int pageSize = DEFAULT_PAGE_SIZE;
+
+    public TaskInbox(NuxeoClient nuxeoClient, String baseURL) {
+        this.nuxeoClient = nuxeoClient;
+        this.baseURL = baseURL;
+    }
+
+    public TaskInbox userId(String userId) {
+        this.userId = userId;
+        return this;
+    }
+
+    public TaskInbox workflowInstanceId(String workflowInstanceId) {
+        this.workflowInstanceId = workflowInstanceId;
+        return this;
+    }
+
+    public TaskInbox workflowModelName(String workflowModelName) {
+        this.workflowModelName = workflowModelName;
+        return this;
+    }
+
+    public TaskInbox pageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    public Tasks fetchPage(int pageIndex) {
+        return fetch(pageIndex).tasks;
+    }
+
+    protected Page fetch(int pageIndex) {
+        HttpUrl.Builder url = HttpUrl.parse(baseURL + ConstantsV1.API_PATH + "task")
+                                     .newBuilder()
+                                     .addQueryParameter("pageSize", String.valueOf(pageSize))
+                                     .addQueryParameter("currentPageIndex", String.valueOf(pageIndex));
+        if (userId != null) {
+            url.addQueryParameter("userId", userId);
+        }
+        if (workflowInstanceId != null) {
+            url.addQueryParameter("workflowInstanceId", workflowInstanceId);
+        }
+        if (workflowModelName != null) {
+            url.addQueryParameter("workflowModelName", workflowModelName);
+        }
+        Response response = nuxeoClient.get(url.build().toString());
+        try {
+            String json = response.body().string();
+            if (!response.isSuccessful()) {
+                throw nuxeoClient.getConverterFactory().readJSON(json, NuxeoClientException.class);
+            }
+            Tasks tasks = nuxeoClient.getConverterFactory().readJSON(json, Tasks.class);
+            JsonNode nextPage = MAPPER.readTree(json).get("isNextPageAvailable");
+            boolean nextPageAvailable = nextPage == null ? tasks.size() == pageSize : nextPage.asBoolean();
+            return new Page(tasks, nextPageAvailable && tasks.size() > 0);
+        } catch (IOException reason) {
+            throw new NuxeoClientException(reason);
+        } finally {
+            response.close();
+        }
+    }
+
+    @Override
+    public Iterator<Task> iterator() {
+        return new PageIterator();
+    }
+
+    public Stream<Task> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED), false);
+    }
+
+    protected class PageIterator implements Iterator<Task> {
+
+        protected Page page;
+
+        protected int index;
+
+        protected int pageIndex;
+
+        @Override
+        public boolean hasNext() {
+            if (page == null || (index == page.tasks.size() && page.nextPageAvailable)) {
+                Page previous = page;
+                page = fetch(pageIndex++);
+                index = 0;
+                if (previous != null && isSamePage(previous, page)) {
+                    // the endpoint ignores the page index, the page was already returned
+                    page = new Page(page.tasks, false);
+                    index = page.tasks.size();
+                }
+            }
+            return index < page.tasks.size();
+        }
+
+        @Override
+        public Task next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.tasks.get(index++);
+        }
+
+        protected boolean isSamePage(Page previous, Page current) {
+            return current.tasks.size() > 0 && previous.tasks.size() > 0
+                    && current.tasks.get(0).getId().equals(previous.tasks.get(0).getId());
+        }
+    }
+
+    protected static class Page {
+
+        protected final Tasks tasks;
+
+        protected final boolean nextPageAvailable;
+
+        protected Page(Tasks tasks, boolean nextPageAvailable) {
+            this.tasks = tasks;
+            this.nextPageAvailable = nextPageAvailable;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.update;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.Document;
+
+/**
+ * Tracks the properties modified on a fetched document, so that updates only send those.
+ * <p>
+ * The properties are snapshotted when tracking starts and after each update. A property is dirty when its value
+ * differs from the snapshot, complex values being compared deeply; a removed property is sent as null. The update
+ * body also carries the change token the document was read with.
+ *
+ * @since 2.2
+ */
+public class DirtyTracker {
+
+    protected Document document;
+
+    protected Map<String, Object> snapshot;
+
+    public DirtyTracker(Document document) {
+        track(document);
+    }
+
+    protected void track(Document document) {
+        this.document = document;
+        Map<String, Object> properties = document.getProperties();
+        this.snapshot = properties == null ? new LinkedHashMap<>() : copy(properties);
+    }
+
+    /**
+     * @return the tracked document, to modify with {@link Document#setPropertyValue(String, Object)}.
+     */
+    public Document getDocument() {
+        return document;
+    }
+
+    /**
+     * @return the properties whose value changed since the snapshot, and the properties removed from the document
+     *         mapped to null: the update then resets them on the server, the REST API having no other way to clear a
+     *         property. Remove a property only to clear it, not to leave it out of the update.
+     */
+    public Map<String, Object> getDirtyProperties() {
+        Map<String, Object> dirty = new LinkedHashMap<>();
+        Map<String, Object> properties = document.getProperties();
+        for (Map.Entry<String, Object> property : properties.entrySet()) {
+            if (!snapshot.containsKey(property.getKey())
+                    || !Objects.equals(snapshot.get(property.getKey()), property.getValue())) {
+                dirty.put(property.getKey(), property.getValue());
+            }
+        }
+        for (String key : snapshot.keySet()) {
+            // removed properties are cleared
+            if (!properties.containsKey(key)) {
+                dirty.put(key, null);
+            }
+        }
+        return dirty;
+    }
+
+    public boolean isDirty() {
+        return !getDirtyProperties().isEmpty();
+    }
+
+    /**
+     * @return the update body: the document reference, its change token and its dirty properties.
+     */
+    public Document getPatch() {
+        return new Document(document.getUid(), document.getType(), null, document.getChangeToken(), null, null, null,
+                null, document.getRepositoryName(), null, null, getDirtyProperties(), null);
+    }
+
+    /**
+     * Sends the dirty properties, if any, and tracks the updated document.
+     *
+     * @return the updated document.
+     */
+    public Document update(NuxeoClient nuxeoClient) {
+        if (isDirty()) {
+            track(nuxeoClient.repository().updateDocument(getPatch()));
+        }
+        return document;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static <T> T copy(T value) {
+        if (value instanceof Map) {
+            Map<String, Object> copy = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                copy.put(entry.getKey(), copy(entry.getValue()));
+            }
+            return (T) copy;
+        } else if (value instanceof List) {
+            List<Object> copy = new ArrayList<>();
+            for (Object item : (List<Object>) value) {
+                copy.add(copy(item));
+            }
+            return (T) copy;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.user;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.user.Group;
+import org.nuxeo.client.api.objects.user.User;
+import org.nuxeo.client.api.objects.user.UserManager;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+import org.nuxeo.client.test.batch.BatchReport;
+import org.nuxeo.client.test.batch.BatchRunner;
+import org.nuxeo.client.test.cache.ExpiringCache;
+
+/**
+ * {@link UserManager} facade keeping the users and groups it resolved in a bounded cache.
+ * <p>
+ * Writes going through this manager invalidate the principals they modify once the server applied them, so that a
+ * concurrent read cannot cache the state preceding the write. Changes done by other clients are picked up once the
+ * time to live expires.
+ *
+ * @since 2.2
+ */
+public class CachingUserManager {
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    public static final long DEFAULT_TTL_MINUTES = 5;
+
+    protected final NuxeoClient nuxeoClient;
+
+    protected final ExpiringCache<String, User> users;
+
+    protected final ExpiringCache<String, Group> groups;
+
+    protected final BatchRunner runner;
+
+    public CachingUserManager(NuxeoClient nuxeoClient) {
+        this(nuxeoClient, DEFAULT_MAX_SIZE, DEFAULT_TTL_MINUTES, TimeUnit.MINUTES, new BatchRunner());
+    }
+
+    public CachingUserManager(NuxeoClient nuxeoClient, int maxSize, long ttl, TimeUnit unit, BatchRunner runner) {
+        this.nuxeoClient = nuxeoClient;
+        this.users = new ExpiringCache<>(ttl, unit, maxSize);
+        this.groups = new ExpiringCache<>(ttl, unit, maxSize);
+        this.runner = runner;
+    }
+
+    protected UserManager getUserManager() {
+        return nuxeoClient.getUserManager();
+    }
+
+    public User fetchUser(String userName) {
+        return users.get(userName, name -> getUserManager().fetchUser(name));
+    }
+
+    public Group fetchGroup(String groupName) {
+        return groups.get(groupName, name -> getUserManager().fetchGroup(name));
+    }
+
+    /**
+     * Resolves many users at once: cached users are returned directly, the others are fetched concurrently.
+     *
+     * @return the users found, keyed and ordered by the requested user names. Unknown users are left out.
+     * @throws NuxeoClientException the first failure other than an unknown user.
+     */
+    public Map<String, User> fetchUsers(Collection<String> userNames) {
+        Map<String, User> resolved = new ConcurrentHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String userName : userNames) {
+            User user = users.getIfPresent(userName);
+            if (user != null) {
+                resolved.put(userName, user);
+            } else if (!missing.contains(userName)) {
+                missing.add(userName);
+            }
+        }
+        checkFailures(runner.run(missing, userName -> resolved.put(userName, fetchUser(userName))));
+        Map<String, User> result = new LinkedHashMap<>();
+        for (String userName : userNames) {
+            if (resolved.containsKey(userName)) {
+                result.put(userName, resolved.get(userName));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @see #fetchUsers(Collection)
+     */
+    public Map<String, Group> fetchGroups(Collection<String> groupNames) {
+        Map<String, Group> resolved = new ConcurrentHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String groupName : groupNames) {
+            Group group = groups.getIfPresent(groupName);
+            if (group != null) {
+                resolved.put(groupName, group);
+            } else if (!missing.contains(groupName)) {
+                missing.add(groupName);
+            }
+        }
+        checkFailures(runner.run(missing, groupName -> resolved.put(groupName, fetchGroup(groupName))));
+        Map<String, Group> result = new LinkedHashMap<>();
+        for (String groupName : groupNames) {
+            if (resolved.containsKey(groupName)) {
+                result.put(groupName, resolved.get(groupName));
+            }
+        }
+        return result;
+    }
+
+    public User createUser(User user) {
+        User created = getUserManager().createUser(user);
+        invalidateGroups(created.getGroups());
+        return created;
+    }
+
+    public User updateUser(User user) {
+        User previous = users.getIfPresent(user.getUserName());
+        User updated = getUserManager().updateUser(user);
+        users.invalidate(user.getUserName());
+        invalidateGroups(updated.getGroups());
+        if (previous != null) {
+            invalidateGroups(previous.getGroups());
+        }
+        return updated;
+    }
+
+    public void deleteUser(String userName) {
+        User user = users.getIfPresent(userName);
+        getUserManager().deleteUser(userName);
+        users.invalidate(userName);
+        if (user != null) {
+            invalidateGroups(user.getGroups());
+        } else {
+            groups.invalidateAll();
+        }
+    }
+
+    public Group createGroup(Group group) {
+        Group created = getUserManager().createGroup(group);
+        invalidateUsers(created.getMemberUsers());
+        return created;
+    }
+
+    public Group updateGroup(Group group) {
+        Group previous = groups.getIfPresent(group.getGroupName());
+        Group updated = getUserManager().updateGroup(group);
+        groups.invalidate(group.getGroupName());
+        invalidateUsers(updated.getMemberUsers());
+        if (previous != null) {
+            invalidateUsers(previous.getMemberUsers());
+        }
+        return updated;
+    }
+
+    public void deleteGroup(String groupName) {
+        getUserManager().deleteGroup(groupName);
+        groups.invalidate(groupName);
+        users.invalidateAll();
+    }
+
+    public User addUserToGroup(String userName, String groupName) {
+        User user = getUserManager().addUserToGroup(userName, groupName);
+        users.invalidate(userName);
+        groups.invalidate(groupName);
+        return user;
+    }
+
+    public User attachGroupToUser(String groupName, String userName) {
+        User user = getUserManager().attachGroupToUser(groupName, userName);
+        users.invalidate(userName);
+        groups.invalidate(groupName);
+        return user;
+    }
+
+    public void invalidate() {
+        users.invalidateAll();
+        groups.invalidateAll();
+    }
+
+    /**
+     * Only a not found principal is left out of a batch fetch, any other failure is rethrown.
+     */
+    protected static void checkFailures(BatchReport<String> report) {
+        for (NuxeoClientException failure : report.getFailures().values()) {
+            if (failure.getStatus() != 404) {
+                throw failure;
+            }
+        }
+    }
+
+    protected void invalidateUsers(Collection<String> userNames) {
+        if (userNames != null) {
+            userNames.forEach(users::invalidate);
+        }
+    }
+
+    protected void invalidateGroups(Collection<String> groupNames) {
+        if (groupNames != null) {
+            groupNames.forEach(groups::invalidate);
+        }
+    }
+}
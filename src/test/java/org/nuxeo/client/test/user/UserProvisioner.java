@@ -0,0 +1,124 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.user;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.user.Group;
+import org.nuxeo.client.api.objects.user.User;
+import org.nuxeo.client.api.objects.user.UserManager;
+import org.nuxeo.client.test.batch.BatchReport;
+import org.nuxeo.client.test.batch.BatchRunner;
+
+/**
+ * Creates or updates many users and groups, typically from a directory synchronization.
+ * <p>
+ * Principals are sent in batches of {@link #batchSize(int)} items, each batch being processed with up to
+ * {@link #parallelism(int)} concurrent requests. The returned report is keyed by user or group name.
+ *
+ * @since 2.2
+ */
+public class UserProvisioner {
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    protected final NuxeoClient nuxeoClient;
+
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+
+    protected int parallelism = BatchRunner.DEFAULT_PARALLELISM;
+
+    public UserProvisioner(NuxeoClient nuxeoClient) {
+        this.nuxeoClient = nuxeoClient;
+    }
+
+    public UserProvisioner batchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public UserProvisioner parallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public BatchReport<String> createUsers(Collection<User> users) {
+        UserManager userManager = nuxeoClient.getUserManager();
+        return run(byUserName(users), user -> userManager.createUser(user));
+    }
+
+    public BatchReport<String> updateUsers(Collection<User> users) {
+        UserManager userManager = nuxeoClient.getUserManager();
+        return run(byUserName(users), user -> userManager.updateUser(user));
+    }
+
+    public BatchReport<String> createGroups(Collection<Group> groups) {
+        UserManager userManager = nuxeoClient.getUserManager();
+        Map<String, Group> byName = new LinkedHashMap<>();
+        for (Group group : groups) {
+            byName.put(group.getGroupName(), group);
+        }
+        return run(byName, group -> userManager.createGroup(group));
+    }
+
+    /**
+     * Adds each user to each of its groups.
+     *
+     * @param memberships the group names keyed by user name.
+     * @return a report keyed by {@code userName:groupName}.
+     */
+    public BatchReport<String> addUsersToGroups(Map<String, ? extends Collection<String>> memberships) {
+        UserManager userManager = nuxeoClient.getUserManager();
+        Map<String, String[]> byKey = new LinkedHashMap<>();
+        memberships.forEach((userName, groupNames) -> {
+            for (String groupName : groupNames) {
+                byKey.put(userName + ":" + groupName, new String[] { userName, groupName });
+            }
+        });
+        return run(byKey, membership -> userManager.addUserToGroup(membership[0], membership[1]));
+    }
+
+    protected Map<String, User> byUserName(Collection<User> users) {
+        Map<String, User> byName = new LinkedHashMap<>();
+        for (User user : users) {
+            byName.put(user.getUserName(), user);
+        }
+        return byName;
+    }
+
+    protected <T> BatchReport<String> run(Map<String, T> items, Consumer<T> call) {
+        BatchRunner runner = new BatchRunner(parallelism);
+        BatchReport<String> report = new BatchReport<>();
+        List<String> keys = new ArrayList<>(items.keySet());
+        for (int i = 0; i < keys.size(); i += batchSize) {
+            runner.run(keys.subList(i, Math.min(i + batchSize, keys.size())), key -> call.accept(items.get(key)),
+                    report);
+        }
+        return report;
+    }
+}
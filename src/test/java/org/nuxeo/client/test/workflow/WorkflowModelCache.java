@@ -0,0 +1,94 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.client.test.workflow;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.client.api.NuxeoClient;
+import org.nuxeo.client.api.objects.Document;
+import org.nuxeo.client.api.objects.workflow.Graph;
+import org.nuxeo.client.api.objects.workflow.Workflow;
+import org.nuxeo.client.api.objects.workflow.Workflows;
+import org.nuxeo.client.internals.spi.NuxeoClientException;
+import org.nuxeo.client.test.cache.ExpiringCache;
+
+/**
+ * Client side cache of the workflow models and of their graphs, which rarely change on the server.
+ * <p>
+ * Once warmed up, starting a workflow instance from a model name does not fetch the models anymore until the time to
+ * live expires or {@link #invalidate()} is called.
+ *
+ * @since 2.2
+ */
+public class WorkflowModelCache {
+
+    public static final long DEFAULT_TTL_MINUTES = 10;
+
+    protected static final String MODELS_KEY = "models";
+
+    protected final NuxeoClient nuxeoClient;
+
+    protected final ExpiringCache<String, Workflows> models;
+
+    protected final ExpiringCache<String, Graph> graphs;
+
+    public WorkflowModelCache(NuxeoClient nuxeoClient) {
+        this(nuxeoClient, DEFAULT_TTL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public WorkflowModelCache(NuxeoClient nuxeoClient, long ttl, TimeUnit unit) {
+        this.nuxeoClient = nuxeoClient;
+        models = new ExpiringCache<>(ttl, unit);
+        graphs = new ExpiringCache<>(ttl, unit);
+    }
+
+    public Workflows getWorkflowModels() {
+        return models.get(MODELS_KEY, key -> nuxeoClient.repository().fetchWorkflowModels());
+    }
+
+    public Workflow getWorkflowModel(String workflowModelName) {
+        Workflows workflows = getWorkflowModels();
+        for (int i = 0; i < workflows.size(); i++) {
+            if (workflowModelName.equals(workflows.get(i).getWorkflowModelName())) {
+                return workflows.get(i);
+            }
+        }
+        throw new NuxeoClientException("Unknown workflow model: " + workflowModelName);
+    }
+
+    public Graph getWorkflowModelGraph(String workflowModelName) {
+        return graphs.get(workflowModelName, name -> nuxeoClient.repository().fetchWorkflowModelGraph(name));
+    }
+
+    public Workflow startWorkflowInstance(Document document, String workflowModelName) {
+        return document.startWorkflowInstance(getWorkflowModel(workflowModelName));
+    }
+
+    public Workflow startWorkflowInstanceWithDocPath(String docPath, String workflowModelName) {
+        return nuxeoClient.repository().startWorkflowInstanceWithDocPath(docPath,
+                getWorkflowModel(workflowModelName));
+    }
+
+    public void invalidate(String workflowModelName) {
+        models.invalidate(MODELS_KEY);
+        graphs.invalidate(workflowModelName);
+    }
+
+    public void invalidate() {
+        models.invalidateAll();
+        graphs.invalidateAll();
+    }
+}